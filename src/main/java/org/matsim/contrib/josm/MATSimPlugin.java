@@ -81,6 +81,7 @@ public class MATSimPlugin extends Plugin implements PreferenceChangedListener {
         jMenu2.add(transitScheduleExportAction);
         jMenu2.add(new JSeparator());
         jMenu2.add(new OTFVisAction());
+        jMenu2.add(new NetworkModelsAction());
 
 		// read tagging preset
 		Reader reader = new InputStreamReader(getClass().getResourceAsStream("matsimPreset.xml"));
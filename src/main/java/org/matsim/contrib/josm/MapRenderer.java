@@ -1,9 +1,8 @@
 package org.matsim.contrib.josm;
 
-import org.matsim.api.core.v01.TransportMode;
+import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.MATSimLayer;
-import org.matsim.contrib.josm.model.MLink;
-import org.matsim.contrib.josm.model.OsmConvertDefaults;
+import org.matsim.contrib.josm.model.NetworkModel;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.osm.*;
 import org.openstreetmap.josm.data.osm.visitor.paint.MapRendererFactory;
@@ -11,6 +10,7 @@ import org.openstreetmap.josm.data.osm.visitor.paint.StyledMapRenderer;
 import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.data.preferences.DoubleProperty;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapViewState.MapViewPoint;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.mappaint.styleelement.LabelCompositionStrategy;
 import org.openstreetmap.josm.gui.mappaint.styleelement.TextLabel;
@@ -18,13 +18,12 @@ import org.openstreetmap.josm.gui.mappaint.styleelement.placement.OnLineStrategy
 import org.openstreetmap.josm.tools.ImageProvider;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import static org.matsim.contrib.josm.MapRenderer.Properties.FONT;
+import static org.openstreetmap.josm.tools.I18n.tr;
 
 /**
  * The MATSim MapRenderer. Draws ways that correspond to existing MATSim link(s)
@@ -55,28 +54,109 @@ public class MapRenderer extends StyledMapRenderer {
         }
     }
 
+    private static final BasicStroke TRAIN_DASHES = new BasicStroke(2, 0, 1, 10.f, new float[] { 9.f }, 9.f);
+    private static final BasicStroke LOD_STROKE = new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    // nodes closer than this to the last drawn one are left out when zoomed out, in pixels
+    private static final double LOD_MIN_SEGMENT = 4;
+    private static final TextLabel LABEL = new MATSimTextLabel(PROPERTIES, FONT, Properties.MATSIMCOLOR, 0.f, new Color(0, 145, 190));
+    private static TextLabel selectedLabel;
+
     /**
-     * Maps links to their corresponding way.
+     * What to draw for the data set being rendered, if it has a network model.
      */
-    private static Map<Way, List<MLink>> way2Links = new HashMap<>();
+    private RenderState state;
+    private boolean levelOfDetail;
+
+    // smoothed over the last frames, renderers only live for one frame
+    private static volatile double frameMillis;
+
+    /**
+     * Draws the links of the network model on the layer of its data set.
+     */
+    public static void setNetworkModel(NetworkModel model) {
+        if (model != null) {
+            RenderState.register(model);
+        }
+    }
 
-    public static void setWay2Links(Map<Way, List<MLink>> way2LinksTmp) {
-        way2Links = way2LinksTmp;
-        MainApplication.getMap().repaint();
+    /**
+     * Stops drawing the links of the network model, e.g. before it is released.
+     */
+    public static void removeNetworkModel(NetworkModel model) {
+        if (model != null) {
+            RenderState.unregister(model);
+        }
+    }
+
+    private TextLabel getSelectedLabel() {
+        // the selection color comes from the paint settings, which may change
+        TextLabel label = selectedLabel;
+        if (label == null || !selectedColor.equals(label.color)) {
+            label = new MATSimTextLabel(PROPERTIES, FONT, selectedColor, 0.f, selectedColor);
+            selectedLabel = label;
+        }
+        return label;
     }
 
 
     @Override
     public void render(OsmData<?, ?, ?, ?> data, boolean renderVirtualNodes, Bounds bounds) {
+        long start = System.nanoTime();
+        state = RenderState.get(data);
+        levelOfDetail = Preferences.isLevelOfDetail() && nc.getDist100Pixel() / 100 > Preferences.getLodScale();
         super.render(data, renderVirtualNodes, bounds);
         if(MainApplication.getLayerManager().getEditLayer() instanceof MATSimLayer) {
             this.g.drawImage(image, (int) (this.mapState.getViewWidth() - 160), 10, null);
         }
+        if (Preferences.isShowFrameTime()) {
+            drawFrameTime((System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private void drawFrameTime(double millis) {
+        frameMillis = frameMillis == 0 ? millis : 0.8 * frameMillis + 0.2 * millis;
+        String text = tr("MATSim: {0} ms ({1} ms avg.), {2}", String.format("%.1f", millis), String.format("%.1f", frameMillis),
+                levelOfDetail ? tr("less detail") : tr("full detail"));
+        g.setFont(FONT);
+        g.setColor(Color.black);
+        g.drawString(text, 11, (int) mapState.getViewHeight() - 9);
+        g.setColor(Color.white);
+        g.drawString(text, 10, (int) mapState.getViewHeight() - 10);
+    }
+
+    // Draws the way as a thin line, leaving out nodes that are too close to
+    // the last one drawn to make a difference at this zoom.
+    private void drawSimplified(IWay<?> way, Color color) {
+        Path2D.Double path = new Path2D.Double();
+        double lastX = 0;
+        double lastY = 0;
+        int nodesCount = way.getNodesCount();
+        for (int i = 0; i < nodesCount; i++) {
+            INode node = way.getNode(i);
+            if (!node.isLatLonKnown()) {
+                continue;
+            }
+            MapViewPoint point = mapState.getPointFor(node.getEastNorth());
+            double x = point.getInViewX();
+            double y = point.getInViewY();
+            if (path.getCurrentPoint() == null) {
+                path.moveTo(x, y);
+            } else if (i == nodesCount - 1 || Math.abs(x - lastX) + Math.abs(y - lastY) >= LOD_MIN_SEGMENT) {
+                path.lineTo(x, y);
+            } else {
+                continue;
+            }
+            lastX = x;
+            lastY = y;
+        }
+        g.setColor(color);
+        g.setStroke(LOD_STROKE);
+        g.draw(path);
     }
 
     /**
-     * Draws a <code>way</code>. Ways that are mapped in <code>way2Links</code>
-     * and represent MATSim links are drawn in a blue color. If "show Ids" is
+     * Draws a <code>way</code>. Ways that represent MATSim links in the
+     * {@link RenderState} of their data set are drawn in a blue color. If "show Ids" is
      * turned on, Ids of the links are drawn on top or below the
      * <code>way</code>.
      *
@@ -91,34 +171,38 @@ public class MapRenderer extends StyledMapRenderer {
     public void drawWay(IWay<?> way, Color color, BasicStroke line, BasicStroke dashes, Color dashedColor, float offset, boolean showOrientation,
                         boolean showHeadArrowOnly, boolean showOneway, boolean onewayReversed) {
 
-        if (way2Links != null && way2Links.containsKey(way) && !way2Links.get(way).isEmpty()) {
+        RenderState.WayRender render = state != null ? state.get(way) : null;
+        if (render != null && levelOfDetail) {
+            // zoomed out: only the main links, simplified and without ids
+            if (render.hierarchy <= Preferences.getLodHierarchy()) {
+                drawSimplified(way, way.isSelected() ? selectedColor : Properties.MATSIMCOLOR);
+            }
+            return;
+        }
+        if (render != null) {
             if (!way.isSelected()) {
                 if (Properties.SHOW_IDS.get()) { // draw id on path
-                    TextLabel label = new MATSimTextLabel(PROPERTIES, FONT, Properties.MATSIMCOLOR, 0.f, new Color(0, 145, 190));
-                    drawText(way, label, new OnLineStrategy(textOffset(way)));
+                    drawText(way, LABEL, new OnLineStrategy(textOffset(way)));
                 }
-                if (way.hasTag("modes", TransportMode.pt)) { // draw
+                if (render.pt) { // draw
                     // dashed
                     // lines
                     // for
                     // pt
                     // links
-                    float[] dashPhase = {9.f};
-                    BasicStroke trainDashes = new BasicStroke(2, 0, 1, 10.f, dashPhase, 9.f);
-                    super.drawWay(way, Properties.MATSIMCOLOR, line, trainDashes, Color.white, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
-                            showHeadArrowOnly, !way.hasTag("highway", OsmConvertDefaults.getWayDefaults().keySet()), onewayReversed);
+                    super.drawWay(way, Properties.MATSIMCOLOR, line, TRAIN_DASHES, Color.white, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
+                            showHeadArrowOnly, render.showOneway, onewayReversed);
                 } else { // draw simple blue lines for other links, if
                     // way is not converted by highway tag, draw
                     // direction arrow for directed edge
                     super.drawWay(way, Properties.MATSIMCOLOR, line, dashes, dashedColor, Properties.WAY_OFFSET.get().floatValue() * -1, showOrientation,
-                            showHeadArrowOnly, !way.hasTag("highway", OsmConvertDefaults.getWayDefaults().keySet()), onewayReversed);
+                            showHeadArrowOnly, render.showOneway, onewayReversed);
                 }
                 return;
             } else {
                 if (Properties.SHOW_IDS.get()) { // draw ids on selected ways
                     // also
-                    TextLabel label = new MATSimTextLabel(PROPERTIES, FONT, selectedColor, 0.f, selectedColor);
-                    drawText(way, label, new OnLineStrategy(textOffset(way)));
+                    drawText(way, getSelectedLabel(), new OnLineStrategy(textOffset(way)));
                 }
             }
         }
@@ -172,13 +256,9 @@ public class MapRenderer extends StyledMapRenderer {
          */
         @Override
         public String compose(IPrimitive prim) {
-            StringBuilder sB = new StringBuilder();
-            if (way2Links.containsKey(prim)) {
-                for (MLink link : way2Links.get(prim)) {
-                    sB.append(" [").append(link.getOrigId()).append("] ");
-                }
-            }
-            return sB.toString();
+            RenderState state = RenderState.get(prim.getDataSet());
+            RenderState.WayRender render = state != null ? state.get(prim) : null;
+            return render != null ? render.label : "";
         }
     }
 
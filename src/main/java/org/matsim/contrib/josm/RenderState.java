@@ -0,0 +1,225 @@
+package org.matsim.contrib.josm;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.contrib.josm.model.LinkConversionRules;
+import org.matsim.contrib.josm.model.MLink;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.OsmConvertDefaults;
+import org.matsim.contrib.josm.model.ScenarioDataChangedEvent;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.WaySegment;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerAddEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerChangeListener;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerOrderChangeEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerRemoveEvent;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+
+/**
+ * What the {@link MapRenderer} draws for the MATSim ways of one data set.
+ *
+ * The state follows the network model of the data set. It keeps what to draw
+ * for each way in a mutable concurrent map, so the renderer reads it without
+ * locking while the model is being converted. After a change, only the
+ * entries and the area of the changed ways are updated and repainted. A
+ * change without details, e.g. of a preference that affects how ways are
+ * drawn, rebuilds all entries.
+ */
+final class RenderState implements NetworkModel.ScenarioDataChangedListener {
+
+	// room around changed ways for strokes, arrows and id labels, in pixels
+	private static final int REPAINT_MARGIN = 50;
+
+	private static final Map<Object, RenderState> states = new ConcurrentHashMap<>();
+	private static final AtomicBoolean listening = new AtomicBoolean();
+	private static final LayerChangeListener cleanup = new LayerChangeListener() {
+		@Override
+		public void layerAdded(LayerAddEvent e) {
+		}
+
+		@Override
+		public void layerRemoving(LayerRemoveEvent e) {
+			if (e.getRemovedLayer() instanceof OsmDataLayer) {
+				RenderState state = states.remove(((OsmDataLayer) e.getRemovedLayer()).data);
+				if (state != null) {
+					state.networkModel.removeListener(state);
+				}
+			}
+		}
+
+		@Override
+		public void layerOrderChanged(LayerOrderChangeEvent e) {
+		}
+	};
+
+	private final NetworkModel networkModel;
+	// replaced as a whole on a rebuild, updated in place otherwise
+	private volatile Map<Way, WayRender> ways;
+
+	private RenderState(NetworkModel networkModel) {
+		this.networkModel = networkModel;
+		this.ways = build();
+	}
+
+	/**
+	 * Draws the links of the network model on the layer of its data set,
+	 * instead of those of the model registered before.
+	 */
+	static void register(NetworkModel networkModel) {
+		RenderState old = states.get(networkModel.getDataSet());
+		if (old != null && old.networkModel == networkModel) {
+			return;
+		}
+		RenderState state = new RenderState(networkModel);
+		networkModel.addListener(state);
+		states.put(networkModel.getDataSet(), state);
+		if (old != null) {
+			old.networkModel.removeListener(old);
+		}
+		if (listening.compareAndSet(false, true)) {
+			MainApplication.getLayerManager().addLayerChangeListener(cleanup);
+		}
+		repaint(null);
+	}
+
+	/**
+	 * Stops drawing the links of the network model, if it is the one
+	 * registered for its data set.
+	 */
+	static void unregister(NetworkModel networkModel) {
+		RenderState state = states.get(networkModel.getDataSet());
+		if (state != null && state.networkModel == networkModel && states.remove(networkModel.getDataSet(), state)) {
+			networkModel.removeListener(state);
+			repaint(null);
+		}
+	}
+
+	/**
+	 * @return the state of the data set, or null if no network model is
+	 *         registered for it
+	 */
+	static RenderState get(Object data) {
+		return data != null ? states.get(data) : null;
+	}
+
+	/**
+	 * @return what to draw for the way, or null if it is no MATSim way
+	 */
+	WayRender get(Object way) {
+		return ways.get(way);
+	}
+
+	@Override
+	public void notifyDataChanged() {
+		ways = build();
+		repaint(null);
+	}
+
+	@Override
+	public void notifyDataChanged(ScenarioDataChangedEvent event) {
+		if (event.isEmpty()) {
+			// a preference may have changed how ways are drawn
+			notifyDataChanged();
+			return;
+		}
+		Set<Way> changed = new HashSet<>();
+		collectWays(event.getRemovedLinks(), changed);
+		collectWays(event.getAddedLinks(), changed);
+		Map<Way, WayRender> current = ways;
+		BBox area = null;
+		for (Way way : changed) {
+			List<MLink> links = networkModel.getWay2Links().get(way);
+			if (links != null && !links.isEmpty()) {
+				current.put(way, new WayRender(way, links));
+			} else {
+				current.remove(way);
+			}
+			if (area == null) {
+				area = new BBox(way.getBBox());
+			} else {
+				area.add(way.getBBox());
+			}
+		}
+		repaint(area);
+	}
+
+	private Map<Way, WayRender> build() {
+		Map<Way, WayRender> result = new ConcurrentHashMap<>();
+		for (Map.Entry<Way, List<MLink>> entry : networkModel.getWay2Links().entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				result.put(entry.getKey(), new WayRender(entry.getKey(), entry.getValue()));
+			}
+		}
+		return result;
+	}
+
+	private static void collectWays(Collection<MLink> links, Set<Way> result) {
+		for (MLink link : links) {
+			for (WaySegment segment : link.getSegments()) {
+				result.add(segment.way);
+			}
+		}
+	}
+
+	// Repaints the area, or the whole map if it is null.
+	private static void repaint(BBox area) {
+		GuiHelper.runInEDT(() -> {
+			if (MainApplication.getMap() == null) {
+				return;
+			}
+			MapView mapView = MainApplication.getMap().mapView;
+			if (area == null || !area.isValid()) {
+				mapView.repaint();
+				return;
+			}
+			Point topLeft = mapView.getPoint(area.getTopLeft());
+			Point bottomRight = mapView.getPoint(area.getBottomRight());
+			Rectangle bounds = new Rectangle(topLeft);
+			bounds.add(bottomRight);
+			bounds.grow(REPAINT_MARGIN, REPAINT_MARGIN);
+			mapView.repaint(bounds);
+		});
+	}
+
+	/**
+	 * What is drawn for a MATSim way, derived from its links and tags.
+	 */
+	static final class WayRender {
+
+		final String label;
+		final boolean pt;
+		final boolean showOneway;
+		// from the conversion defaults of the way, 0 if it has none
+		final int hierarchy;
+
+		WayRender(Way way, List<MLink> links) {
+			StringBuilder sB = new StringBuilder();
+			for (MLink link : links) {
+				sB.append(" [").append(link.getOrigId()).append("] ");
+			}
+			this.label = sB.toString();
+			this.pt = way.hasTag("modes", TransportMode.pt);
+			// if the way is not converted by highway tag, draw the direction
+			// arrow for directed edges
+			this.showOneway = !way.hasTag("highway", OsmConvertDefaults.getWayDefaults().keySet());
+			// the link type carries the speed as well, so it is looked up by
+			// tag as in the conversion
+			OsmConvertDefaults.OsmWayDefaults defaults = LinkConversionRules.getWayDefaults(way.getKeys());
+			this.hierarchy = defaults != null ? defaults.hierarchy : 0;
+		}
+	}
+
+}
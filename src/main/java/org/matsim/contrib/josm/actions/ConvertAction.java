@@ -4,9 +4,10 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
-import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -16,16 +17,17 @@ import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.LayerConverter;
 import org.matsim.contrib.josm.model.MATSimLayer;
 import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
+import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.PleaseWaitRunnable;
-import org.openstreetmap.josm.gui.progress.swing.PleaseWaitProgressMonitor;
-import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.Shortcut;
-import org.xml.sax.SAXException;
 
 /**
  * Results in a new {@link MATSimLayer} which holds the converted data.
@@ -43,75 +45,106 @@ public class ConvertAction extends JosmAction {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-		List<TestError> breakingErrors = breakingErrors();
-		if (breakingErrors.isEmpty()) {
-			PleaseWaitRunnable task = new PleaseWaitRunnable("Converting to MATSim Network") {
-				private MATSimLayer layer;
-
-				@Override
-				protected void cancel() {
-				}
-
-				@Override
-				protected void realRun() throws SAXException, IOException, OsmTransferException {
+		OsmDataLayer editLayer = MainApplication.getLayerManager().getEditLayer();
+		// validation and conversion run in the background, the layer is only
+		// added if neither finds a problem nor is canceled
+		PleaseWaitRunnable task = new PleaseWaitRunnable(tr("Converting to MATSim Network")) {
+			private MATSimLayer layer;
+			private List<TestError> breakingErrors = Collections.emptyList();
+
+			@Override
+			protected void cancel() {
+				// the conversion polls the progress monitor
+			}
+
+			@Override
+			protected void realRun() {
+				ProgressMonitor monitor = getProgressMonitor();
+				monitor.setTicksCount(3);
+				try {
+					breakingErrors = breakingErrors(editLayer, monitor.createSubTaskMonitor(1, false));
+					if (!breakingErrors.isEmpty() || monitor.isCanceled()) {
+						return;
+					}
+					// the conversion reads the data of the layer itself, and only
+					// locks it to take the primitives, without another copy
 					if (Preferences.isTransitLite()) {
-						this.layer = LayerConverter.convertToPseudoNetwork(MainApplication.getLayerManager().getEditLayer());
+						this.layer = LayerConverter.convertToPseudoNetwork(editLayer.data, monitor.createSubTaskMonitor(2, false));
 					} else {
-						this.layer = LayerConverter.convertWithFullTransit(MainApplication.getLayerManager().getEditLayer());
+						this.layer = LayerConverter.convertWithFullTransit(editLayer.data, monitor.createSubTaskMonitor(2, false));
 					}
+				} catch (CancellationException ex) {
+					this.layer = null;
 				}
+			}
 
-				@Override
-				protected void finish() {
-					if (layer != null) {
-						// Do not zoom to full layer extent, but leave the view port where
-						// it is.
-						// (Perhaps I want to look at the particular are I am viewing right
-						// now.)
-						MainApplication.getLayerManager().addLayer(layer);
-					}
+			@Override
+			protected void finish() {
+				if (getProgressMonitor().isCanceled()) {
+					return;
 				}
-			};
-			task.run();
-		} else {
-			OsmValidator.initializeErrorLayer();
-			MainApplication.getMap().validatorDialog.unfurlDialog();
-			MainApplication.getLayerManager().getEditLayer().validationErrors.clear();
-			MainApplication.getLayerManager().getEditLayer().validationErrors.addAll(breakingErrors);
-			MainApplication.getMap().validatorDialog.tree.setErrors(breakingErrors);
-		}
+				if (!breakingErrors.isEmpty()) {
+					JOptionPane.showMessageDialog(MainApplication.getMainFrame(), "Export failed due to validation errors. See validation layer for details.",
+							"Failure", JOptionPane.ERROR_MESSAGE, new ImageProvider("warning-small").setWidth(16).get());
+					OsmValidator.initializeErrorLayer();
+					MainApplication.getMap().validatorDialog.unfurlDialog();
+					editLayer.validationErrors.clear();
+					editLayer.validationErrors.addAll(breakingErrors);
+					MainApplication.getMap().validatorDialog.tree.setErrors(breakingErrors);
+				} else if (layer != null) {
+					// Do not zoom to full layer extent, but leave the view port where
+					// it is.
+					// (Perhaps I want to look at the particular are I am viewing right
+					// now.)
+					MainApplication.getLayerManager().addLayer(layer);
+				}
+			}
+		};
+		MainApplication.worker.execute(task);
     }
 
-	private List<TestError> breakingErrors() {
-		NetworkTest test1 = new NetworkTest();
-		PleaseWaitProgressMonitor progMonitor1 = new PleaseWaitProgressMonitor("Validation");
-		test1.startTest(progMonitor1);
-		test1.visit(MainApplication.getLayerManager().getEditDataSet().allPrimitives());
-		test1.endTest();
-		progMonitor1.finishTask();
-		progMonitor1.close();
-
-		if (test1.getErrors().stream().anyMatch(error -> error.getSeverity().equals(Severity.ERROR))) {
-			JOptionPane.showMessageDialog(MainApplication.getMainFrame(), "Export failed due to validation errors. See validation layer for details.",
-					"Failure", JOptionPane.ERROR_MESSAGE, new ImageProvider("warning-small").setWidth(16).get());
-			return test1.getErrors();
+	private static List<TestError> breakingErrors(OsmDataLayer layer, ProgressMonitor monitor) {
+		monitor.beginTask(tr("Validation"), 2);
+		try {
+			NetworkTest test1 = new NetworkTest();
+			test1.setLayer(layer);
+			test1.startTest(monitor.createSubTaskMonitor(1, false));
+			runTest(test1, layer.data);
+
+			if (test1.getErrors().stream().anyMatch(error -> error.getSeverity().equals(Severity.ERROR))) {
+				return test1.getErrors();
+			}
+			if (monitor.isCanceled()) {
+				throw new CancellationException();
+			}
+
+			TransitScheduleTest test2 = new TransitScheduleTest();
+			test2.setLayer(layer);
+			test2.startTest(monitor.createSubTaskMonitor(1, false));
+			runTest(test2, layer.data);
+
+			List<TestError> allErrors = Stream.concat(test1.getErrors().stream(), test2.getErrors().stream()).collect(Collectors.toList());
+			if (test2.getErrors().stream().anyMatch(error -> error.getSeverity().equals(Severity.ERROR))) {
+				return allErrors;
+			} else {
+				return Collections.emptyList();
+			}
+		} finally {
+			monitor.finishTask();
 		}
+	}
 
-		TransitScheduleTest test2 = new TransitScheduleTest();
-		PleaseWaitProgressMonitor progMonitor2 = new PleaseWaitProgressMonitor("Validation");
-		test2.startTest(progMonitor2);
-		test2.visit(MainApplication.getLayerManager().getEditDataSet().allPrimitives());
-		test2.endTest();
-		progMonitor2.finishTask();
-		progMonitor2.close();
-
-		List<TestError> allErrors = Stream.concat(test1.getErrors().stream(), test2.getErrors().stream()).collect(Collectors.toList());
-		if (test2.getErrors().stream().anyMatch(error -> error.getSeverity().equals(Severity.ERROR))) {
-			JOptionPane.showMessageDialog(MainApplication.getMainFrame(), "Export failed due to validation errors. See validation layer for details.",
-					"Failure", JOptionPane.ERROR_MESSAGE, new ImageProvider("warning-small").setWidth(16).get());
-			return allErrors;
-		} else {
-			return Collections.emptyList();
+	// Starting a test may wait for the shared network model, which is built
+	// from the data set on another thread. So only the visit is locked, to
+	// keep the data set from being edited while it is read.
+	private static void runTest(Test test, DataSet data) {
+		Lock lock = data.getReadLock();
+		lock.lock();
+		try {
+			test.visit(data.allPrimitives());
+			test.endTest();
+		} finally {
+			lock.unlock();
 		}
 	}
 
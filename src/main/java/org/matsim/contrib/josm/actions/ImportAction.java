@@ -5,6 +5,7 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
@@ -16,6 +17,7 @@ import org.matsim.contrib.josm.model.MATSimLayer;
 import org.openstreetmap.josm.actions.JosmAction;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.preferences.projection.ProjectionChoice;
 import org.openstreetmap.josm.gui.preferences.projection.ProjectionPreference;
 import org.openstreetmap.josm.tools.Shortcut;
@@ -75,7 +77,9 @@ public class ImportAction extends JosmAction {
                         @Override
                         protected void realRun() {
                             try {
-                                layer = importer.createMatsimLayer();
+                                layer = importer.createMatsimLayer(getProgressMonitor().createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
+                            } catch (CancellationException e) {
+                                // canceled by the user, nothing to add
                             } catch (Exception e) {
                                 JOptionPane.showMessageDialog(MainApplication.getMainFrame(), "Error while parsing MATSim network file. Maybe it isn't one?", "Error", 1);
                             }
@@ -9,6 +9,8 @@ import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.Export;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelWriter;
 import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.core.network.io.NetworkWriter;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
@@ -74,6 +76,8 @@ public final class NetworkExporter extends FileExporter {
 	public void exportData(File file, Layer layer) throws IOException {
 
 		NetworkTest test = new NetworkTest();
+		// the model of the MATSim layer is complete, nothing is waited for
+		test.setLayer((OsmDataLayer) layer);
 		PleaseWaitProgressMonitor progMonitor = new PleaseWaitProgressMonitor("Validation");
 
 		// convertWithFullTransit validator tests
@@ -112,15 +116,21 @@ public final class NetworkExporter extends FileExporter {
 
 		// start export task if not aborted
 		if (okToExport) {
-			Scenario targetScenario = Export.toScenario(((MATSimLayer) layer).getNetworkModel());
+			NetworkModel networkModel = ((MATSimLayer) layer).getNetworkModel();
+			if (Preferences.PROP_CLEAN_NETWORK.get() || Preferences.includeRoadType()) {
+				// cleaning and road type attributes need the MATSim network
+				Scenario targetScenario = Export.toScenario(networkModel);
 
-			if (Preferences.PROP_CLEAN_NETWORK.get()) {
-				new NetworkCleaner().run(targetScenario.getNetwork());
-			}
-			if(Preferences.getNetworkExportVersion().equals("v1")) {
-				new NetworkWriter(targetScenario.getNetwork()).writeFileV1(file.getPath());
+				if (Preferences.PROP_CLEAN_NETWORK.get()) {
+					new NetworkCleaner().run(targetScenario.getNetwork());
+				}
+				if(Preferences.getNetworkExportVersion().equals("v1")) {
+					new NetworkWriter(targetScenario.getNetwork()).writeFileV1(file.getPath());
+				} else {
+					new NetworkWriter(targetScenario.getNetwork()).write(file.getPath());
+				}
 			} else {
-				new NetworkWriter(targetScenario.getNetwork()).write(file.getPath());
+				new NetworkModelWriter(networkModel, Preferences.getNetworkExportVersion()).write(file.getPath());
 			}
 		}
 
@@ -0,0 +1,74 @@
+package org.matsim.contrib.josm.actions;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.util.List;
+
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
+import org.matsim.contrib.josm.model.Route;
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+
+/**
+ * Lists the network models that still follow their data set, with who holds
+ * them and how many listeners they notify. Models that stay here after their
+ * layer or dialog is gone have not been disposed. Also shows how often the
+ * stops and links of routes were computed.
+ */
+@SuppressWarnings("serial")
+public class NetworkModelsAction extends JosmAction {
+
+	public NetworkModelsAction() {
+		super(tr("Network models"), null, tr("Show the network models in use"), null, false);
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		List<NetworkModel> models = NetworkModel.liveModels();
+		String[] columnNames = { tr("layer"), tr("held by"), tr("listeners"), tr("nodes"), tr("links") };
+		Object[][] rows = new Object[models.size()][];
+		for (int i = 0; i < models.size(); i++) {
+			NetworkModel model = models.get(i);
+			rows[i] = new Object[] { layerName(model), holder(model), model.getListenerCount(), model.nodes().size(),
+					model.getWay2Links().values().stream().mapToInt(List::size).sum() };
+		}
+		JTable table = new JTable(rows, columnNames);
+		table.setAutoCreateRowSorter(true);
+		JScrollPane pane = new JScrollPane(table);
+		pane.setPreferredSize(new Dimension(500, 200));
+		JLabel computations = new JLabel(tr("Route stops computed: {0}, route links computed: {1}",
+				Route.getStopComputations(), Route.getRouteComputations()));
+		JOptionPane.showMessageDialog(MainApplication.getMainFrame(), new Object[] { pane, computations },
+				tr("Network models"), JOptionPane.INFORMATION_MESSAGE);
+	}
+
+	private static String layerName(NetworkModel model) {
+		for (OsmDataLayer layer : MainApplication.getLayerManager().getLayersOfType(OsmDataLayer.class)) {
+			if (layer.data == model.getDataSet()) {
+				return layer.getName();
+			}
+		}
+		return tr("(no layer)");
+	}
+
+	private static String holder(NetworkModel model) {
+		for (MATSimLayer layer : MainApplication.getLayerManager().getLayersOfType(MATSimLayer.class)) {
+			if (layer.getNetworkModel() == model) {
+				return tr("MATSim layer");
+			}
+		}
+		int users = NetworkModelRegistry.getUsers(model.getDataSet());
+		return users > 0 ? tr("{0} users", users) : tr("nobody");
+	}
+
+}
@@ -11,12 +11,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.matsim.contrib.josm.gui.Preferences;
-import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.MLink;
 import org.matsim.contrib.josm.model.MNode;
 import org.matsim.contrib.josm.model.NetworkModel;
-import org.matsim.core.config.Config;
-import org.matsim.core.config.ConfigUtils;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
 import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.SequenceCommand;
@@ -28,7 +26,9 @@ import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Logging;
 
 /**
  * The Test which is used for the validation of MATSim content.
@@ -67,6 +67,10 @@ public class NetworkTest extends Test {
 	 */
 	private final static int DOUBTFUL_LINK_ATTRIBUTE = 3003;
 	private NetworkModel networkModel;
+	// the layer whose shared network model is held during the test
+	private OsmDataLayer layer;
+	// the layer to test, if not the edit layer
+	private OsmDataLayer testedLayer;
 
 	/**
 	 * Creates a new {@code MATSimTest}.
@@ -75,6 +79,14 @@ public class NetworkTest extends Test {
 		super(tr("MATSimValidation"), tr("Validates MATSim-related network data"));
 	}
 
+	/**
+	 * Tests the layer instead of the edit layer, which may change while the
+	 * test runs outside of the validator.
+	 */
+	public void setLayer(OsmDataLayer layer) {
+		this.testedLayer = layer;
+	}
+
 	/**
 	 * Starts the test. Initializes the mappings of {@link #nodeIds} and
 	 * {@link #linkIds}.
@@ -83,14 +95,11 @@ public class NetworkTest extends Test {
 	public void startTest(ProgressMonitor monitor) {
 		this.nodeIds = new HashMap<>();
 		this.linkIds = new HashMap<>();
-		if (MainApplication.getLayerManager().getActiveLayer() instanceof MATSimLayer) {
-			this.networkModel = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel();
-		} else {
-			Config config = ConfigUtils.createConfig();
-			config.transit().setUseTransit(true);
-			NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
-			networkModel.visitAll();
-			this.networkModel = networkModel;
+		// the model of MATSim layers, or the one shared with the dialogs
+		this.layer = testedLayer != null ? testedLayer : MainApplication.getLayerManager().getEditLayer();
+		this.networkModel = NetworkModelRegistry.acquireIfBuilt(layer);
+		if (networkModel == null) {
+			Logging.info("MATSim network of layer {0} is still being converted, not validated", layer.getName());
 		}
 		super.startTest(monitor);
 	}
@@ -101,6 +110,9 @@ public class NetworkTest extends Test {
 	 */
 	@Override
 	public void visit(Way w) {
+		if (networkModel == null) {
+			return;
+		}
 		List<MLink> mLinks = networkModel.getWay2Links().get(w);
 		if (mLinks != null) {
 			for (MLink link : mLinks) {
@@ -127,6 +139,9 @@ public class NetworkTest extends Test {
 	 */
 	@Override
 	public void visit(Node n) {
+		if (networkModel == null) {
+			return;
+		}
 		MNode node = networkModel.nodes().get(n);
 		if (node != null) {
 			String origId = node.getOrigId();
@@ -147,8 +162,8 @@ public class NetworkTest extends Test {
 	 *         attributes. <code>false</code> otherwise
 	 */
 	private boolean doubtfulAttributes(MLink link) {
-		return link.getFreespeed() == 0 || link.getCapacity() == 0 || link.getLength() == 0
-				|| link.getNumberOfLanes() == 0
+		return link.getFreespeedValue() == 0 || link.getCapacityValue() == 0 || link.getLengthValue() == 0
+				|| link.getNumberOfLanesValue() == 0
 				|| (Preferences.includeRoadType() && link.getType() == null);
 	}
 
@@ -189,6 +204,10 @@ public class NetworkTest extends Test {
 				errors.add(error);
 			}
 		}
+		if (networkModel != null) {
+			NetworkModelRegistry.release(layer);
+		}
+		layer = null;
 		super.endTest();
 		linkIds = null;
 		nodeIds = null;
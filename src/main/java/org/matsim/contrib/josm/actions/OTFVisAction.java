@@ -5,11 +5,13 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 
+import javax.swing.JOptionPane;
+
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.josm.gui.OTFDialog;
 import org.matsim.contrib.josm.model.Export;
-import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Injector;
@@ -24,6 +26,8 @@ import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.utils.CreateVehiclesForSchedule;
 import org.openstreetmap.josm.actions.JosmAction;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.tools.Shortcut;
 
 public class OTFVisAction extends JosmAction {
@@ -35,10 +39,24 @@ public class OTFVisAction extends JosmAction {
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
-		networkModel.visitAll();
-		Scenario scenario = Export.toScenario(networkModel);
+		OsmDataLayer layer = MainApplication.getLayerManager().getEditLayer();
+		// the shared model of an OSM layer may still be built, which the event
+		// dispatch thread does not wait for, it is exported when it is done
+		NetworkModelRegistry.acquire(layer).whenComplete((model, failure) -> GuiHelper.runInEDT(() -> {
+			try {
+				if (failure != null) {
+					JOptionPane.showMessageDialog(MainApplication.getMainFrame(), tr("Conversion to MATSim network failed"), tr("Failure"),
+							JOptionPane.ERROR_MESSAGE);
+				} else {
+					simulate(Export.toScenario(model));
+				}
+			} finally {
+				NetworkModelRegistry.release(layer);
+			}
+		}));
+	}
 
+	private void simulate(Scenario scenario) {
 		long departureId = 0;
 		for (TransitLine transitLine : scenario.getTransitSchedule().getTransitLines().values()) {
 			for (TransitRoute transitRoute : transitLine.getRoutes().values()) {
@@ -39,6 +39,8 @@ public class TransitScheduleExportAction extends DiskAccessAction implements Pre
 			if (file != null) {
 
 				TransitScheduleTest test = new TransitScheduleTest();
+				// the model of the MATSim layer is complete, nothing is waited for
+				test.setLayer(MainApplication.getLayerManager().getEditLayer());
 				PleaseWaitProgressMonitor progMonitor = new PleaseWaitProgressMonitor("Validation");
 
 				// convertWithFullTransit validator tests
@@ -10,12 +10,10 @@ import java.util.stream.Collectors;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.contrib.josm.model.Line;
-import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
 import org.matsim.contrib.josm.model.Route;
 import org.matsim.contrib.josm.model.StopArea;
-import org.matsim.core.config.Config;
-import org.matsim.core.config.ConfigUtils;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
@@ -27,11 +25,17 @@ import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Logging;
 
 public class TransitScheduleTest extends Test {
 
 	private NetworkModel networkModel;
+	// the layer whose shared network model is held during the test
+	private OsmDataLayer layer;
+	// the layer to test, if not the edit layer
+	private OsmDataLayer testedLayer;
 
 	/**
 	 * Integer code for duplicated id errors
@@ -55,25 +59,35 @@ public class TransitScheduleTest extends Test {
 		super(tr("MATSimValidation"), tr("Validates MATSim-related transit schedule data"));
 	}
 
+	/**
+	 * Tests the layer instead of the edit layer, which may change while the
+	 * test runs outside of the validator.
+	 */
+	public void setLayer(OsmDataLayer layer) {
+		this.testedLayer = layer;
+	}
+
 	/**
 	 * Starts the test.
 	 */
 	@Override
 	public void startTest(ProgressMonitor monitor) {
-		if (MainApplication.getLayerManager().getActiveLayer() instanceof MATSimLayer) {
-			this.networkModel = ((MATSimLayer) MainApplication.getLayerManager().getActiveLayer()).getNetworkModel();
-		} else {
-			Config config = ConfigUtils.createConfig();
-			config.transit().setUseTransit(true);
-			NetworkModel networkModel = NetworkModel.createNetworkModel(MainApplication.getLayerManager().getEditDataSet());
-			networkModel.visitAll();
-			this.networkModel = networkModel;
+		// the model of MATSim layers, or the one shared with the dialogs
+		this.layer = testedLayer != null ? testedLayer : MainApplication.getLayerManager().getEditLayer();
+		this.networkModel = NetworkModelRegistry.acquireIfBuilt(layer);
+		if (networkModel == null) {
+			Logging.info("MATSim network of layer {0} is still being converted, not validated", layer.getName());
 		}
 		super.startTest(monitor);
 	}
 
 	@Override
 	public void endTest() {
+		if (networkModel == null) {
+			layer = null;
+			super.endTest();
+			return;
+		}
 
 		Map<Id<TransitLine>, List<Line>> lineIds = networkModel.lines().values().stream().collect(Collectors.groupingBy(Line::getMatsimId));
 		for (Entry<Id<TransitLine>, List<Line>> entry : lineIds.entrySet()) {
@@ -126,6 +140,8 @@ public class TransitScheduleTest extends Test {
 //				errors.add(error);
 //			}
 //		}
+		NetworkModelRegistry.release(layer);
+		layer = null;
 		super.endTest();
 	}
 
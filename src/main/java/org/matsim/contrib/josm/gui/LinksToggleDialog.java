@@ -3,9 +3,11 @@ package org.matsim.contrib.josm.gui;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.Component;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -17,6 +19,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
@@ -29,6 +32,8 @@ import org.matsim.contrib.josm.actions.NetworkTest;
 import org.matsim.contrib.josm.model.MATSimLayer;
 import org.matsim.contrib.josm.model.MLink;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
+import org.matsim.contrib.josm.model.ScenarioDataChangedEvent;
 import org.openstreetmap.josm.data.osm.DataSelectionListener;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.OsmDataManager;
@@ -47,6 +52,7 @@ import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MainLayerManager.ActiveLayerChangeEvent;
 import org.openstreetmap.josm.gui.layer.MainLayerManager.ActiveLayerChangeListener;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.tools.ImageProvider;
 
@@ -59,19 +65,29 @@ import org.openstreetmap.josm.tools.ImageProvider;
 
 @SuppressWarnings("serial")
 public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChangeListener, NetworkModel.ScenarioDataChangedListener {
+	// how long data changes are collected before the table is rebuilt, in ms
+	private static final int REFRESH_DELAY = 200;
+	// selection changes that remove more ways rebuild the table instead
+	private static final int MAX_REMOVED_DELTA = 1000;
+
 	private final JTable table_links;
 	private final MATSimTableModel_links tableModel_links = new MATSimTableModel_links();
 
 	private final JButton networkAttributes = new JButton(new ImageProvider("dialogs", "edit").setWidth(16).get());
 	private NetworkModel networkModel;
+	// the layer whose network model this dialog holds, and that model
+	private OsmDataLayer modelLayer;
+	private CompletableFuture<NetworkModel> model;
+	// kept up to date from the change events, so the title does not have to
+	// count all links on every change
+	private int linkCount;
 
 	private final DataSetListenerAdapter dataSetListenerAdapter = new DataSetListenerAdapter(e -> notifyDataChanged());
-	private final DataSelectionListener selectionListener = e -> notifyDataChanged();
 
 	@Override
 	public void showNotify() {
 		DatasetEventManager.getInstance().addDatasetListener(dataSetListenerAdapter, DatasetEventManager.FireMode.IN_EDT_CONSOLIDATED);
-		SelectionEventManager.getInstance().addSelectionListenerForEdt(selectionListener);
+		SelectionEventManager.getInstance().addSelectionListenerForEdt(tableModel_links);
 		MainApplication.getLayerManager().addActiveLayerChangeListener(this);
 		notifyEverythingChanged();
 	}
@@ -79,7 +95,7 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 	@Override
 	public void hideNotify() {
 		DatasetEventManager.getInstance().removeDatasetListener(dataSetListenerAdapter);
-		SelectionEventManager.getInstance().removeSelectionListener(selectionListener);
+		SelectionEventManager.getInstance().removeSelectionListener(tableModel_links);
 		MainApplication.getLayerManager().removeActiveLayerChangeListener(this);
 		notifyEverythingChanged();
 	}
@@ -119,48 +135,71 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 
 	// called when MATSim data changes to update the data in this dialog
 	private void notifyEverythingChanged() {
-		OsmDataLayer layer = MainApplication.getLayerManager().getEditLayer();
+		OsmDataLayer layer = isShowing() ? MainApplication.getLayerManager().getEditLayer() : null;
 		if (networkModel != null) {
 			networkModel.removeListener(this);
 		}
-		if (isShowing() && layer != null) {
-			if (layer instanceof MATSimLayer) {
-				networkModel = ((MATSimLayer) layer).getNetworkModel(); // MATSim
-				// layers
-				// have
-				// their
-				// own
-				// network
-				// listener
-			} else {
-				networkModel = NetworkModel.createNetworkModel(layer.data);
-				networkModel.visitAll();
+		networkModel = null;
+		if (layer != modelLayer) {
+			if (modelLayer != null) {
+				// the renderer would keep a released shared model alive, the
+				// model of a MATSim layer is drawn as long as the layer exists
+				if (!(modelLayer instanceof MATSimLayer)) {
+					model.thenAccept(MapRenderer::removeNetworkModel);
+				}
+				NetworkModelRegistry.release(modelLayer);
+			}
+			modelLayer = layer;
+			// MATSim layers have their own network model, the one of other
+			// layers may still be built in the background
+			model = layer != null ? NetworkModelRegistry.acquire(layer) : null;
+			if (model != null && !model.isDone()) {
+				CompletableFuture<NetworkModel> pending = model;
+				// also when the build fails, to show that
+				pending.whenComplete((built, failure) -> GuiHelper.runInEDT(() -> {
+					if (model == pending) {
+						notifyEverythingChanged();
+					}
+				}));
 			}
+		}
+		if (model != null && model.isDone() && !model.isCompletedExceptionally()) {
+			networkModel = model.join();
+		}
+		if (networkModel != null) {
 			table_links.setModel(tableModel_links);
 			this.networkAttributes.setEnabled(true);
 			checkInternalIdColumn();
+			// set converted links that are to be drawn blue by map renderer
+			MapRenderer.setNetworkModel(networkModel);
+			networkModel.addListener(this);
+			linkCount = networkModel.getWay2Links().values().stream().mapToInt(List::size).sum();
 		} else { // empty data mappings if no data layer is active
-			networkModel = null;
 			table_links.setModel(new DefaultTableModel());
-			setTitle(tr("Links/Nodes"));
 			networkAttributes.setEnabled(false);
 		}
-		if (networkModel != null) {
-			// set converted links that are to be drawn blue by map renderer
-			MapRenderer.setWay2Links(networkModel.getWay2Links());
-			networkModel.addListener(this);
-		}
+		notifyDataChanged();
+		tableModel_links.refresh();
+	}
+
+	@Override
+	public void notifyDataChanged(ScenarioDataChangedEvent event) {
+		linkCount += event.getAddedLinks().size() - event.getRemovedLinks().size();
 		notifyDataChanged();
 	}
 
 	@Override
 	public void notifyDataChanged() {
 		if (networkModel != null) {
-			setTitle(tr("Links: {0} / Nodes: {1}", networkModel.getWay2Links().values().stream().mapToInt(List::size).sum(), networkModel.nodes().size()));
+			setTitle(tr("Links: {0} / Nodes: {1}", linkCount, networkModel.nodes().size()));
+		} else if (model != null && !model.isDone()) {
+			setTitle(tr("Converting to MATSim network..."));
+		} else if (model != null && model.isCompletedExceptionally()) {
+			setTitle(tr("Conversion to MATSim network failed"));
 		} else {
 			setTitle(tr("No MATSim layer active"));
 		}
-		tableModel_links.selectionChanged(null);
+		tableModel_links.scheduleRefresh();
 	}
 
 
@@ -191,16 +230,34 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 		}
 	}
 
+	// a row of the links table, with its values prepared once instead of on
+	// every paint
+	private static final class LinkRow {
+		final Way way;
+		final MLink link;
+		final Object[] values;
+
+		LinkRow(Way way, MLink link) {
+			this.way = way;
+			this.link = link;
+			this.values = new Object[] { link.getOrigId(), link.getId().toString(), link.getLength(), link.getFreespeed(), link.getCapacity(),
+					link.getNumberOfLanes(), link.getAllowedModes().toString(), link.getType(), link.getHbefaType() };
+		}
+	}
+
 	// handles the underlying data of the links table
 	private class MATSimTableModel_links extends AbstractTableModel implements DataSelectionListener, ListSelectionListener {
 
 		private final String[] columnNames = { "id", "internal-id", "length", "freespeed", "capacity", "permlanes", "modes", "type", "hbefa" };
 
-		private Map<Integer, MLink> links;
+		// one row per link of the selected MATSim ways
+		private final List<LinkRow> rows = new ArrayList<>();
+
+		// data changes rebuild the whole table, at most once per delay
+		private final Timer refreshTimer = new Timer(REFRESH_DELAY, e -> refresh());
 
 		MATSimTableModel_links() {
-			this.links = new HashMap<>();
-			SelectionEventManager.getInstance().addSelectionListener(this);
+			refreshTimer.setRepeats(false);
 		}
 
 		@Override
@@ -239,53 +296,29 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 
 		@Override
 		public int getRowCount() {
-			return links.size();
+			return rows.size();
 		}
 
 		@Override
 		public Object getValueAt(int rowIndex, int columnIndex) {
-			MLink link = links.get(rowIndex);
-			if (columnIndex == 0) {
-				return link.getOrigId();
-			} else if (columnIndex == 1) {
-				return link.getId().toString();
-			} else if (columnIndex == 2) {
-				return link.getLength();
-			} else if (columnIndex == 3) {
-				return link.getFreespeed();
-			} else if (columnIndex == 4) {
-				return link.getCapacity();
-			} else if (columnIndex == 5) {
-				return link.getNumberOfLanes();
-			} else if (columnIndex == 6) {
-				return link.getAllowedModes().toString();
-			} else if (columnIndex == 7) {
-				return link.getType();
-			} else if (columnIndex == 8) {
-				return link.getHbefaType();
-			} else if(columnIndex == 9) {
-				return link;
-			}
-			throw new RuntimeException();
+			return rows.get(rowIndex).values[columnIndex];
 		}
 
-		@Override
-		// change shown link information of selected elements when selection changes
-		public void selectionChanged(SelectionChangeEvent e) {
-			links.clear();
+		void scheduleRefresh() {
+			refreshTimer.restart();
+		}
+
+		// rebuilds the rows from the current selection
+		void refresh() {
+			refreshTimer.stop();
+			rows.clear();
 			if (networkModel != null) {
 				DataSet currentDataSet = MainApplication.getLayerManager().getEditDataSet();
 				if (currentDataSet != null) {
 					currentDataSet.clearHighlightedWaySegments();
-					int i = 0;
 					for (OsmPrimitive primitive : OsmDataManager.getInstance().getInProgressSelection()) {
 						if (primitive instanceof Way) {
-							if (networkModel.getWay2Links().containsKey(primitive)) {
-								for (MLink link : networkModel.getWay2Links().get(primitive)) {
-									links.put(i, link);
-									i++;
-								}
-							}
+							addRows((Way) primitive);
 						}
 					}
 				}
@@ -293,6 +326,63 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 			fireTableDataChanged();
 		}
 
+		private void addRows(Way way) {
+			List<MLink> links = networkModel.getWay2Links().get(way);
+			if (links != null) {
+				for (MLink link : links) {
+					rows.add(new LinkRow(way, link));
+				}
+			}
+		}
+
+		// Removes the rows of the ways, with one event per run of adjacent rows.
+		private void removeRows(Set<Way> ways) {
+			int end = rows.size();
+			while (end > 0) {
+				if (!ways.contains(rows.get(end - 1).way)) {
+					end--;
+					continue;
+				}
+				int start = end - 1;
+				while (start > 0 && ways.contains(rows.get(start - 1).way)) {
+					start--;
+				}
+				rows.subList(start, end).clear();
+				fireTableRowsDeleted(start, end - 1);
+				end = start;
+			}
+		}
+
+		@Override
+		// change shown link information of selected elements when selection changes
+		public void selectionChanged(SelectionChangeEvent e) {
+			DataSet currentDataSet = MainApplication.getLayerManager().getEditDataSet();
+			if (networkModel == null || currentDataSet == null || e.getSource() != currentDataSet
+					|| e.getRemoved().size() > MAX_REMOVED_DELTA) {
+				refresh();
+				return;
+			}
+			currentDataSet.clearHighlightedWaySegments();
+			Set<Way> removed = new HashSet<>();
+			for (OsmPrimitive primitive : e.getRemoved()) {
+				if (primitive instanceof Way) {
+					removed.add((Way) primitive);
+				}
+			}
+			if (!removed.isEmpty()) {
+				removeRows(removed);
+			}
+			int first = rows.size();
+			for (OsmPrimitive primitive : e.getAdded()) {
+				if (primitive instanceof Way) {
+					addRows((Way) primitive);
+				}
+			}
+			if (rows.size() > first) {
+				fireTableRowsInserted(first, rows.size() - 1);
+			}
+		}
+
 		@Override
 		// highlight and zoom to way segments that refer to the selected link in
 		// the table
@@ -301,7 +391,7 @@ public class LinksToggleDialog extends ToggleDialog implements ActiveLayerChange
 			if (currentDataSet != null) {
 				if (table_links.getSelectedRow() != -1) {
 					int row = table_links.convertRowIndexToModel(table_links.getSelectedRow());
-					MLink link = (MLink) this.getValueAt(row, 9);
+					MLink link = rows.get(row).link;
 					if (link.getSegments() != null) {
 						List<WaySegment> segments = link.getSegments();
 						currentDataSet.setHighlightedWaySegments(segments);
@@ -5,14 +5,17 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.SwingUtilities;
 
 import org.matsim.contrib.josm.actions.MyOverpassDownloader;
-import org.matsim.contrib.josm.model.Line;
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
 import org.matsim.contrib.josm.model.Route;
+import org.matsim.contrib.josm.model.RouteMembershipIndex;
 import org.openstreetmap.josm.actions.downloadtasks.DownloadOsmTask;
 import org.openstreetmap.josm.actions.downloadtasks.DownloadParams;
 import org.openstreetmap.josm.actions.downloadtasks.PostDownloadHandler;
@@ -30,6 +33,7 @@ import org.openstreetmap.josm.gui.dialogs.relation.DownloadRelationTask;
 import org.openstreetmap.josm.gui.layer.MainLayerManager.ActiveLayerChangeEvent;
 import org.openstreetmap.josm.gui.layer.MainLayerManager.ActiveLayerChangeListener;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.gui.util.HighlightHelper;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangeEvent;
 
@@ -40,9 +44,7 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
-import javafx.collections.MapChangeListener;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.embed.swing.JFXPanel;
 import javafx.scene.Scene;
 import javafx.scene.control.ContextMenu;
@@ -65,17 +67,18 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 	private final TableView<Route> table_pt;
 	private final StringProperty title;
 
-	private FilteredList<Route> selectedRoutes;
-	private final DataSelectionListener selectionListener = e -> {
-		if (MainApplication.getLayerManager().getEditDataSet() != null) {
-			HashSet<OsmPrimitive> selection = new HashSet<>(OsmDataManager.getInstance().getInProgressSelection());
-			Platform.runLater(() -> selectedRoutes.setPredicate(route ->
-					selection.contains(route.getRelation()) ||
-							!Collections.disjoint(selection, route.getRelation().getMemberPrimitives())));
-		} else {
-			Platform.runLater(() -> selectedRoutes.setPredicate(route -> false));
-		}
-	};
+	// the routes of the selection, as shown in the table
+	private final ObservableList<Route> shownRoutes = FXCollections.observableArrayList();
+	// the edit layer and its network model, which may still be built
+	private OsmDataLayer shownLayer;
+	private CompletableFuture<NetworkModel> model;
+	// the model whose routes are shown and the index of their members, EDT only
+	private NetworkModel shownModel;
+	private RouteMembershipIndex index;
+	private boolean updateScheduled;
+	// after the index, so it sees the routes as they are after the change
+	private final NetworkModel.ScenarioDataChangedListener routesListener = () -> GuiHelper.runInEDT(this::scheduleUpdate);
+	private final DataSelectionListener selectionListener = e -> updateSelection();
 
 	@Override
 	public void showNotify() {
@@ -87,6 +90,7 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 	public void hideNotify() {
 		SelectionEventManager.getInstance().removeSelectionListener(selectionListener);
 		MainApplication.getLayerManager().removeActiveLayerChangeListener(this);
+		releaseModel();
 	}
 
 	public PTToggleDialog() {
@@ -107,6 +111,7 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 			TableColumn<Route, Number> routeSizeColumn = new TableColumn<>("#links");
 			routeSizeColumn.setCellValueFactory(r -> Bindings.size(r.getValue().getRoute()));
 			table_pt.getColumns().setAll(idColumn, modeColumn, stopsSizeColumn, routeSizeColumn);
+			table_pt.setItems(shownRoutes);
 			table_pt.setRowFactory(v -> {
 				TableRow<Route> row = new TableRow<>();
 				final ContextMenu rowMenu = new ContextMenu();
@@ -179,49 +184,100 @@ public class PTToggleDialog extends ToggleDialog implements ActiveLayerChangeLis
 	@Override
 	public void activeOrEditLayerChanged(ActiveLayerChangeEvent e) {
 		OsmDataLayer editLayer = MainApplication.getLayerManager().getEditLayer();
-		if (editLayer != null) {
-			HashSet<OsmPrimitive> selection = new HashSet<>(OsmDataManager.getInstance().getInProgressSelection());
+		if (editLayer != shownLayer) {
+			releaseModel();
+			shownLayer = editLayer;
+			model = editLayer != null ? NetworkModelRegistry.acquire(editLayer) : null;
+		}
+		if (model == null) {
+			updateSelection();
+			return;
+		}
+		if (!model.isDone()) {
 			Platform.runLater(() -> {
-				NetworkModel networkModel = NetworkModel.createNetworkModel(editLayer.data);
-				ObservableList<Line> lineList = FXCollections.observableArrayList();
-				ObservableList<Route> routeList = FXCollections.observableArrayList();
-				networkModel.lines().addListener((MapChangeListener<Relation, Line>) change -> {
-					Platform.runLater(() -> lineList.remove(change.getValueRemoved()));
-					if (change.wasAdded()) {
-						Platform.runLater(() -> lineList.add(change.getValueAdded()));
-					}
-				});
-				networkModel.routes().addListener((MapChangeListener<Relation, Route>) change -> {
-					Platform.runLater(() -> routeList.remove(change.getValueRemoved()));
-					if (change.wasAdded()) {
-						Platform.runLater(() -> routeList.add(change.getValueAdded()));
-					}
-				});
-				networkModel.visitAll();
-				selectedRoutes = new FilteredList<>(routeList);
-				table_pt.setItems(selectedRoutes);
-				selectedRoutes.setPredicate(route ->
-						selection.contains(route.getRelation()) ||
-						!Collections.disjoint(selection, route.getRelation().getMemberPrimitives()));
-				FilteredList<Line> selectedLines = new FilteredList<>(lineList, line -> !Collections.disjoint(line.getRoutes(), selectedRoutes));
-				title.bind(Bindings.createStringBinding(() -> {
-					if (selectedRoutes.isEmpty()) {
-						return "Lines/Routes";
-					} else {
-						return tr("Lines: {0} / Routes: {1}", selectedLines.size(), selectedRoutes.size());
-					}
-				}, selectedLines, selectedRoutes));
+				shownRoutes.clear();
+				title.set(tr("Converting to MATSim network..."));
 			});
-		} else {
-			Platform.runLater(() -> {
-				ObservableList<Route> routeList = FXCollections.observableArrayList();
-				selectedRoutes = new FilteredList<>(routeList);
-				table_pt.setItems(FXCollections.emptyObservableList());
-				title.bind(Bindings.createStringBinding(() -> "Lines/Routes"));
+		}
+		CompletableFuture<NetworkModel> pending = model;
+		pending.whenComplete((networkModel, failure) -> GuiHelper.runInEDT(() -> {
+			// skip models of layers that are no longer edited
+			if (model != pending) {
+				return;
+			}
+			if (failure != null) {
+				detach();
+				Platform.runLater(() -> {
+					shownRoutes.clear();
+					title.set(tr("Conversion to MATSim network failed"));
+				});
+			} else {
+				attach(networkModel);
+			}
+		}));
+	}
+
+	// follows the routes of the model
+	private void attach(NetworkModel networkModel) {
+		if (networkModel != shownModel) {
+			detach();
+			index = new RouteMembershipIndex(networkModel);
+			networkModel.addListener(index);
+			networkModel.addListener(routesListener);
+			shownModel = networkModel;
+		}
+		updateSelection();
+	}
+
+	// Updates the table after model changes, once for all changes made
+	// before the update runs.
+	private void scheduleUpdate() {
+		if (!updateScheduled) {
+			updateScheduled = true;
+			SwingUtilities.invokeLater(() -> {
+				updateScheduled = false;
+				updateSelection();
 			});
 		}
 	}
 
+	// Looks up the routes of the selection in the index and hands them to
+	// the table as one change.
+	private void updateSelection() {
+		Set<Route> routes = index != null ? index.routesOf(OsmDataManager.getInstance().getInProgressSelection())
+				: Collections.emptySet();
+		int lineCount = index != null ? index.countLines(routes) : 0;
+		List<Route> rows = new ArrayList<>(routes);
+		Platform.runLater(() -> {
+			shownRoutes.setAll(rows);
+			if (rows.isEmpty()) {
+				title.set("Lines/Routes");
+			} else {
+				title.set(tr("Lines: {0} / Routes: {1}", lineCount, rows.size()));
+			}
+		});
+	}
+
+	// gives back the model of the layer that was edited before
+	private void releaseModel() {
+		detach();
+		if (shownLayer != null) {
+			NetworkModelRegistry.release(shownLayer);
+			shownLayer = null;
+			model = null;
+		}
+	}
+
+	// stops following the model that was shown before
+	private void detach() {
+		if (shownModel != null) {
+			shownModel.removeListener(index);
+			shownModel.removeListener(routesListener);
+			shownModel = null;
+			index = null;
+		}
+	}
+
 	@Override
 	public void preferenceChanged(PreferenceChangeEvent preferenceChangeEvent) {
 		super.preferenceChanged(preferenceChangeEvent);
@@ -22,6 +22,7 @@ import javax.swing.SwingConstants;
 import javax.swing.WindowConstants;
 
 import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.data.preferences.StringProperty;
 import org.openstreetmap.josm.gui.MainApplication;
@@ -70,6 +71,12 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 	private static final StringProperty PROP_NETWORK_VERSION = new StringProperty("matsim_networkVersion", "v2");
 	private static final BooleanProperty PROP_SUPPORT_TRANSIT = new BooleanProperty("matsim_supportTransit", false);
 	private static final BooleanProperty PROP_TRANSIT_LITE = new BooleanProperty("matsim_transit_lite", false);
+	private static final BooleanProperty PROP_COALESCE_CHANGES = new BooleanProperty("matsim_coalesceChanges", false);
+	private static final BooleanProperty PROP_PARALLEL_PROCESSING = new BooleanProperty("matsim_parallelProcessing", false);
+	private static final BooleanProperty PROP_LEVEL_OF_DETAIL = new BooleanProperty("matsim_levelOfDetail", false);
+	private static final DoubleProperty PROP_LOD_SCALE = new DoubleProperty("matsim_lodScale", 20.0);
+	private static final IntegerProperty PROP_LOD_HIERARCHY = new IntegerProperty("matsim_lodHierarchy", 3);
+	private static final BooleanProperty PROP_SHOW_FRAME_TIME = new BooleanProperty("matsim_showFrameTime", false);
 
 
   public static class Factory implements PreferenceSettingFactory {
@@ -302,4 +309,55 @@ public final class Preferences extends DefaultTabPreferenceSetting {
 		return PROP_FILTER_HIERARCHY.get();
 	}
 
+	/**
+	 * If set, edits are not converted one event at a time, but collected and
+	 * converted in one batch per EDT tick.
+	 */
+	public static boolean isCoalesceChanges() {
+		return PROP_COALESCE_CHANGES.get();
+	}
+
+	/**
+	 * If set, full conversions are spread over all available cores. The
+	 * result is the same as for the serial conversion.
+	 */
+	public static boolean isParallelProcessing() {
+		return PROP_PARALLEL_PROCESSING.get();
+	}
+
+	public static void setParallelProcessing(boolean parallelProcessing) {
+		PROP_PARALLEL_PROCESSING.put(parallelProcessing);
+	}
+
+	/**
+	 * If set, MATSim links are drawn with less detail when zoomed out beyond
+	 * {@link #getLodScale()}: only hierarchies up to
+	 * {@link #getLodHierarchy()}, with simplified geometry and without ids.
+	 */
+	public static boolean isLevelOfDetail() {
+		return PROP_LEVEL_OF_DETAIL.get();
+	}
+
+	/**
+	 * @return the scale in meters per pixel from which on links are drawn
+	 *         with less detail
+	 */
+	public static double getLodScale() {
+		return PROP_LOD_SCALE.get();
+	}
+
+	/**
+	 * @return the lowest hierarchy that is still drawn with less detail
+	 */
+	public static int getLodHierarchy() {
+		return PROP_LOD_HIERARCHY.get();
+	}
+
+	/**
+	 * If set, the MATSim renderer shows how long it took to draw the map.
+	 */
+	public static boolean isShowFrameTime() {
+		return PROP_SHOW_FRAME_TIME.get();
+	}
+
 }
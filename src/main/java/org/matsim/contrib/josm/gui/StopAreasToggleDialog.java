@@ -1,14 +1,22 @@
 package org.matsim.contrib.josm.gui;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import javax.swing.SwingUtilities;
 
 import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
 import org.matsim.contrib.josm.model.StopArea;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.dialogs.ToggleDialog;
 import org.openstreetmap.josm.gui.layer.MainLayerManager;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangeEvent;
 
 import javafx.application.Platform;
@@ -27,7 +35,13 @@ import javafx.scene.layout.AnchorPane;
 public class StopAreasToggleDialog extends ToggleDialog implements MainLayerManager.ActiveLayerChangeListener {
 
 	private final JFXPanel fxPanel = new JFXPanel();
+	// the edit layer and its network model, which may still be built, and
+	// the model shown in the list with the listener on it. All of them are
+	// only used on the event dispatch thread, which also changes the model.
 	private OsmDataLayer editLayer;
+	private CompletableFuture<NetworkModel> model;
+	private NetworkModel shownModel;
+	private MapChangeListener<Relation, StopArea> stopAreaListener;
 	private final ListView<StopArea> list = new ListView<>();
 	private final StringProperty title = new SimpleStringProperty("Stop areas");
 
@@ -69,36 +83,105 @@ public class StopAreasToggleDialog extends ToggleDialog implements MainLayerMana
 	@Override
 	public void hideNotify() {
 		MainApplication.getLayerManager().removeActiveLayerChangeListener(this);
+		detach();
+		Platform.runLater(() -> list.setItems(FXCollections.emptyObservableList()));
+		releaseModel();
 	}
 
 	@Override
 	public void activeOrEditLayerChanged(MainLayerManager.ActiveLayerChangeEvent activeLayerChangeEvent) {
-		editLayer = MainApplication.getLayerManager().getEditLayer();
-		Platform.runLater(() -> {
-			if (editLayer != null) {
-				NetworkModel networkModel = NetworkModel.createNetworkModel(editLayer.data);
-				ObservableList<StopArea> stopAreaList = FXCollections.observableArrayList();
-				networkModel.stopAreas().addListener((MapChangeListener<Relation, StopArea>) change -> {
-					Platform.runLater(() -> stopAreaList.remove(change.getValueRemoved()));
-					if (change.wasAdded()) {
-						Platform.runLater(() -> stopAreaList.add(change.getValueAdded()));
-					}
-				});
-				networkModel.visitAll();
-				list.setItems(stopAreaList);
-				title.bind(Bindings.createStringBinding(() -> {
-					if (stopAreaList.isEmpty()) {
-						return "Stop areas";
-					} else {
-						return "Stop areas: " + stopAreaList.size();
-					}
-				}, stopAreaList));
+		OsmDataLayer layer = MainApplication.getLayerManager().getEditLayer();
+		if (layer != editLayer) {
+			detach();
+			releaseModel();
+			editLayer = layer;
+			model = layer != null ? NetworkModelRegistry.acquire(layer) : null;
+		}
+		if (model == null) {
+			detach();
+			Platform.runLater(() -> list.setItems(FXCollections.emptyObservableList()));
+			return;
+		}
+		if (!model.isDone()) {
+			detach();
+			showMessage(tr("Converting to MATSim network..."));
+		}
+		CompletableFuture<NetworkModel> pending = model;
+		pending.whenComplete((networkModel, failure) -> GuiHelper.runInEDT(() -> {
+			// skip models of layers that are no longer edited
+			if (model != pending) {
+				return;
+			}
+			if (failure != null) {
+				detach();
+				showMessage(tr("Conversion to MATSim network failed"));
 			} else {
-				list.setItems(FXCollections.emptyObservableList());
+				attach(networkModel);
+			}
+		}));
+	}
+
+	// Follows the stop areas of the model. The stop areas are copied and the
+	// listener is added on the event dispatch thread, which changes the model,
+	// so no change is missed in between. The JavaFX thread only gets the copy
+	// and the changes.
+	private void attach(NetworkModel networkModel) {
+		if (networkModel == shownModel) {
+			return;
+		}
+		detach();
+		List<StopArea> stopAreas = new ArrayList<>(networkModel.stopAreas().values());
+		ObservableList<StopArea> stopAreaList = FXCollections.observableArrayList();
+		// queued before any change the listener hands over
+		Platform.runLater(() -> {
+			stopAreaList.setAll(stopAreas);
+			list.setItems(stopAreaList);
+			title.bind(Bindings.createStringBinding(() -> {
+				if (stopAreaList.isEmpty()) {
+					return "Stop areas";
+				} else {
+					return "Stop areas: " + stopAreaList.size();
+				}
+			}, stopAreaList));
+		});
+		stopAreaListener = change -> {
+			if (change.wasRemoved()) {
+				Platform.runLater(() -> stopAreaList.remove(change.getValueRemoved()));
+			}
+			if (change.wasAdded()) {
+				Platform.runLater(() -> stopAreaList.add(change.getValueAdded()));
 			}
+		};
+		networkModel.stopAreas().addListener(stopAreaListener);
+		shownModel = networkModel;
+	}
+
+	// shows an empty list with the message as title
+	private void showMessage(String message) {
+		Platform.runLater(() -> {
+			list.setItems(FXCollections.emptyObservableList());
+			title.unbind();
+			title.set(message);
 		});
 	}
 
+	// gives back the model of the layer that was edited before
+	private void releaseModel() {
+		if (editLayer != null) {
+			NetworkModelRegistry.release(editLayer);
+			editLayer = null;
+			model = null;
+		}
+	}
+
+	// stops following the shared model that was shown before
+	private void detach() {
+		if (shownModel != null) {
+			shownModel.stopAreas().removeListener(stopAreaListener);
+			shownModel = null;
+		}
+	}
+
 	@Override
 	public void preferenceChanged(PreferenceChangeEvent preferenceChangeEvent) {
 		super.preferenceChanged(preferenceChangeEvent);
@@ -1,19 +1,21 @@
 package org.matsim.contrib.josm.model;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Identifiable;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
-import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 
 import org.matsim.contrib.emissions.EmissionUtils;
@@ -28,33 +30,57 @@ import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 public class Export {
 
 	public static Scenario toScenario(NetworkModel networkModel) {
+		return toScenario(networkModel, NullProgressMonitor.INSTANCE);
+	}
+
+	/**
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the monitor is canceled meanwhile
+	 */
+	public static Scenario toScenario(NetworkModel networkModel, ProgressMonitor monitor) {
+		monitor.beginTask(tr("Exporting to MATSim"), networkModel.nodes().size() + networkModel.getWay2Links().size() + networkModel.lines().size());
+		try {
+			return export(networkModel, monitor);
+		} finally {
+			monitor.finishTask();
+		}
+	}
+
+	private static Scenario export(NetworkModel networkModel, ProgressMonitor monitor) {
+		int done = 0;
 		Config config = ConfigUtils.createConfig();
 		if (Preferences.isSupportTransit()) {
 			config.transit().setUseTransit(true);
 		}
 
 		Scenario scenario = ScenarioUtils.createScenario(config);
+		// the exported counterparts of the model objects, so that they do not
+		// have to be looked up by id again
+		final Map<MNode, Node> nodes = new IdentityHashMap<>();
+		final Map<MLink, Link> links = new IdentityHashMap<>();
 		for (MNode node : networkModel.nodes().values()) {
-			Node newNode = scenario.getNetwork().getFactory().createNode(Id.createNodeId(node.getOrigId()), node.getCoord());
+			Node newNode = scenario.getNetwork().getFactory().createNode(node.getId(), node.getCoord());
 			scenario.getNetwork().addNode(newNode);
+			nodes.put(node, newNode);
+			done = NetworkModel.tick(monitor, done);
 		}
 
-		for (List<MLink> links : networkModel.getWay2Links().values()) {
-			for (MLink link : links) {
+		for (List<MLink> wayLinks : networkModel.getWay2Links().values()) {
+			for (MLink link : wayLinks) {
 				Link newLink = scenario
 						.getNetwork()
 						.getFactory()
-						.createLink(Id.create(link.getOrigId(), Link.class),
-								scenario.getNetwork().getNodes().get(Id.create(link.getFromNode().getOrigId(), Node.class)),
-								scenario.getNetwork().getNodes().get(Id.create(link.getToNode().getOrigId(), Node.class)));
-				newLink.setFreespeed(link.getFreespeed());
-				newLink.setCapacity(link.getCapacity());
-				newLink.setLength(link.getLength());
-				newLink.setNumberOfLanes(link.getNumberOfLanes());
+						.createLink(link.getId(), nodes.get(link.getFromNode()), nodes.get(link.getToNode()));
+				newLink.setFreespeed(link.getFreespeedValue());
+				newLink.setCapacity(link.getCapacityValue());
+				newLink.setLength(link.getLengthValue());
+				newLink.setNumberOfLanes(link.getNumberOfLanesValue());
 				newLink.setAllowedModes(link.getAllowedModes());
 				if (Preferences.includeRoadType()) {
 					NetworkUtils.setType(newLink, link.getType());
@@ -62,88 +88,129 @@ public class Export {
 //					EmissionUtils.setHbefaRoadType(newLink, link.getHbefaType());
 				}
 				scenario.getNetwork().addLink(newLink);
+				links.put(link, newLink);
 			}
+			done = NetworkModel.tick(monitor, done);
 		}
 
-		final Map<StopArea, List<TransitStopFacility>> facilityCopies = createFacilities(networkModel, scenario);
+		final Map<StopArea, List<TransitStopFacility>> facilityCopies = createFacilities(networkModel, scenario, nodes);
 		assert (scenario.getTransitSchedule().getFacilities().isEmpty());
+		final Map<StopArea, Map<Id<Link>, TransitStopFacility>> facilitiesByLink = indexByLink(facilityCopies);
 
-		for (Line line : networkModel.lines().values()) {
-			TransitLine newTLine = scenario.getTransitSchedule().getFactory().createTransitLine(line.getMatsimId());
-			for (Route route : line.getRoutes()) {
-				if (!route.isDeleted()) {
-					List<TransitRouteStop> newTRStops = new ArrayList<>();
-					List<Link> allLinks = getLinks(route.getRoute(), scenario.getNetwork());
-
-					IntStream.range(0, route.getStops().size()).forEach(i -> {
-						RouteStop transitRouteStop = route.getStops().get(i);
-						TransitRouteStop newTRStop = scenario.getTransitSchedule().getFactory().createTransitRouteStop(null, transitRouteStop.getArrivalOffset(), transitRouteStop.getDepartureOffset());
-						newTRStop.setAwaitDepartureTime(transitRouteStop.getAwaitDepartureTime());
-
-						// check if stop.link is on route. if not, but a link with the same toNode as stop.link is,
-						// check if there is already a copy_link of stop. if it is, replace stop with copy. else create copy and replace stop with copy.
-						for (Link link : allLinks) {
-							if (link == null) {
-								throw new RuntimeException();
-							}
+		List<Line> allLines = new ArrayList<>(networkModel.lines().values());
+		Stream<Line> lineStream = Preferences.isParallelProcessing() ? allLines.parallelStream() : allLines.stream();
+		List<ExportedLine> exportedLines = lineStream
+				.map(line -> exportLine(line, scenario, links, facilityCopies, facilitiesByLink))
+				.collect(Collectors.toList());
+		monitor.setTicks(done + allLines.size());
+		NetworkModel.checkCanceled(monitor);
+		// merge in line order, so the schedule is the same either way
+		for (ExportedLine exported : exportedLines) {
+			for (TransitStopFacility facility : exported.facilities) {
+				if (!scenario.getTransitSchedule().getFacilities().containsKey(facility.getId())) {
+					scenario.getTransitSchedule().addStopFacility(facility);
+				}
+			}
+			if (!exported.line.getRoutes().isEmpty()) {
+				scenario.getTransitSchedule().addTransitLine(exported.line);
+			}
+		}
+		return scenario;
+	}
 
-							Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().filter(facility -> {
-								return link.getId().equals(facility.getLinkId());
-							}).findFirst();
-							if (first.isPresent()) {
-								newTRStop.setStopFacility(first.get());
-								break;
-							}
+	// Builds the line without touching the schedule, so that lines can be
+	// exported concurrently. The facilities its stops use are collected in
+	// stop order and added to the schedule afterwards.
+	private static ExportedLine exportLine(Line line, Scenario scenario, Map<MLink, Link> links,
+			Map<StopArea, List<TransitStopFacility>> facilityCopies, Map<StopArea, Map<Id<Link>, TransitStopFacility>> facilitiesByLink) {
+		TransitLine newTLine = scenario.getTransitSchedule().getFactory().createTransitLine(line.getMatsimId());
+		ExportedLine exported = new ExportedLine(newTLine);
+		for (Route route : line.getRoutes()) {
+			if (!route.isDeleted()) {
+				List<TransitRouteStop> newTRStops = new ArrayList<>();
+				List<Link> allLinks = getLinks(route.getRoute(), links);
+				LinkPositions linkPositions = new LinkPositions(allLinks);
+
+				List<RouteStop> routeStops = route.getStops();
+				for (int i = 0; i < routeStops.size(); i++) {
+					RouteStop transitRouteStop = routeStops.get(i);
+					TransitRouteStop newTRStop = scenario.getTransitSchedule().getFactory().createTransitRouteStop(null, transitRouteStop.getArrivalOffset(), transitRouteStop.getDepartureOffset());
+					newTRStop.setAwaitDepartureTime(transitRouteStop.getAwaitDepartureTime());
+
+					// check if stop.link is on route. if not, but a link with the same toNode as stop.link is,
+					// check if there is already a copy_link of stop. if it is, replace stop with copy. else create copy and replace stop with copy.
+					// Of the facilities on the route, take the one on the earliest link.
+					TransitStopFacility onRoute = null;
+					int onRoutePosition = Integer.MAX_VALUE;
+					for (Map.Entry<Id<Link>, TransitStopFacility> entry : facilitiesByLink.get(transitRouteStop.getStopArea()).entrySet()) {
+						int position = linkPositions.of(entry.getKey());
+						if (position < onRoutePosition) {
+							onRoute = entry.getValue();
+							onRoutePosition = position;
 						}
+					}
+					if (linkPositions.firstMissing < onRoutePosition) {
+						// a link before any facility is not in the network
+						throw new RuntimeException();
+					}
+					if (onRoute != null) {
+						newTRStop.setStopFacility(onRoute);
+					}
 
-						if (newTRStop.getStopFacility() == null) {
-							if (i == 0) {
-								// If the first stop doesn't have a facility now, its node
-								// may be the very first node of the route.
-								// So pick any facility.
-								Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().findFirst();
-								if (first.isPresent()) {
-									// Pick any link attached to the stop area as dummy start link.
-									newTRStop.setStopFacility(first.get());
-									if (first.get().getLinkId() != null) {
-										allLinks.add(0, scenario.getNetwork().getLinks().get(first.get().getLinkId()));
-										// It *still* can be null, because stop areas *without any* link are also allowed.
-									}
-								} else {
-									throw new RuntimeException();
+					if (newTRStop.getStopFacility() == null) {
+						if (i == 0) {
+							// If the first stop doesn't have a facility now, its node
+							// may be the very first node of the route.
+							// So pick any facility.
+							Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().findFirst();
+							if (first.isPresent()) {
+								// Pick any link attached to the stop area as dummy start link.
+								newTRStop.setStopFacility(first.get());
+								if (first.get().getLinkId() != null) {
+									allLinks.add(0, scenario.getNetwork().getLinks().get(first.get().getLinkId()));
+									// It *still* can be null, because stop areas *without any* link are also allowed.
+									linkPositions = new LinkPositions(allLinks);
 								}
 							} else {
-								Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().findFirst();
-								if (first.isPresent()) {
-									// Pick any link attached to the stop area as dummy start link.
-									newTRStop.setStopFacility(first.get());
-								} else {
-									throw new RuntimeException();
-								}
+								throw new RuntimeException();
+							}
+						} else {
+							Optional<TransitStopFacility> first = facilityCopies.get(transitRouteStop.getStopArea()).stream().findFirst();
+							if (first.isPresent()) {
+								// Pick any link attached to the stop area as dummy start link.
+								newTRStop.setStopFacility(first.get());
+							} else {
+								throw new RuntimeException();
 							}
 						}
-						newTRStops.add(newTRStop);
-						if (!scenario.getTransitSchedule().getFacilities().containsKey(newTRStop.getStopFacility().getId())) {
-							scenario.getTransitSchedule().addStopFacility(newTRStop.getStopFacility());
-						}
-					});
-
-					TransitRoute newTRoute = scenario.getTransitSchedule().getFactory().createTransitRoute(Id.create(route.getId(), TransitRoute.class), allLinks.isEmpty() ? null : RouteUtils.createNetworkRoute(allLinks.stream().map(Identifiable::getId).collect(Collectors.toList()), scenario.getNetwork()), newTRStops,
-							route.getTransportMode());
-					for (Departure departure : route.getDepartures()) {
-						newTRoute.addDeparture(departure);
 					}
-					newTLine.addRoute(newTRoute);
+					newTRStops.add(newTRStop);
+					exported.facilities.add(newTRStop.getStopFacility());
 				}
-			}
-			if (!newTLine.getRoutes().isEmpty()) {
-				scenario.getTransitSchedule().addTransitLine(newTLine);
+
+				TransitRoute newTRoute = scenario.getTransitSchedule().getFactory().createTransitRoute(Id.create(route.getId(), TransitRoute.class), allLinks.isEmpty() ? null : RouteUtils.createNetworkRoute(allLinks.stream().map(Identifiable::getId).collect(Collectors.toList()), scenario.getNetwork()), newTRStops,
+						route.getTransportMode());
+				for (Departure departure : route.getDepartures()) {
+					newTRoute.addDeparture(departure);
+				}
+				newTLine.addRoute(newTRoute);
 			}
 		}
-		return scenario;
+		return exported;
 	}
 
-	private static Map<StopArea, List<TransitStopFacility>> createFacilities(NetworkModel networkModel, Scenario scenario) {
+	private static class ExportedLine {
+
+		final TransitLine line;
+		final List<TransitStopFacility> facilities = new ArrayList<>();
+
+		ExportedLine(TransitLine line) {
+			this.line = line;
+		}
+
+	}
+
+	private static Map<StopArea, List<TransitStopFacility>> createFacilities(NetworkModel networkModel, Scenario scenario, Map<MNode, Node> nodes) {
 		final Map<StopArea, List<TransitStopFacility>> facilityCopies = new HashMap<>(networkModel.stopAreas().values().stream().collect(Collectors.toMap(Function.identity(), sa -> new ArrayList<>())));
 		networkModel.stopAreas().values().stream().forEach(stopArea -> {
 			List<MNode> stopPositionModelNodes = stopArea.getStopPositionOsmNodes().stream().map(osmNode -> getmNode(networkModel, osmNode))
@@ -155,13 +222,13 @@ public class Export {
 				TransitStopFacility transitStopFacility = scenario.getTransitSchedule().getFactory().createTransitStopFacility(id, stopArea.getCoord(), stopArea.isBlockingLane());
 				MLink linkId = stopArea.getLink();
 				if (linkId != null) {
-					transitStopFacility.setLinkId(Id.createLinkId(linkId.getOrigId()));
+					transitStopFacility.setLinkId(linkId.getId());
 				}
 				transitStopFacility.setName(stopArea.getName());
 				facilityCopies.get(stopArea).add(transitStopFacility);
 			} else {
 				for (MNode modelNode : stopPositionModelNodes) {
-					Node node = scenario.getNetwork().getNodes().get(Id.createNodeId(modelNode.getOrigId()));
+					Node node = nodes.get(modelNode);
 					if(node.getInLinks().isEmpty()) {
 						Id<TransitStopFacility> id = Id.create(stopArea.getMatsimId().toString(), TransitStopFacility.class);
 						TransitStopFacility transitStopFacility = scenario.getTransitSchedule().getFactory().createTransitStopFacility(id, stopArea.getCoord(), stopArea.isBlockingLane());
@@ -185,13 +252,55 @@ public class Export {
 		return facilityCopies;
 	}
 
+	// The first facility of each stop area on each link.
+	private static Map<StopArea, Map<Id<Link>, TransitStopFacility>> indexByLink(Map<StopArea, List<TransitStopFacility>> facilityCopies) {
+		Map<StopArea, Map<Id<Link>, TransitStopFacility>> index = new HashMap<>();
+		for (Map.Entry<StopArea, List<TransitStopFacility>> entry : facilityCopies.entrySet()) {
+			Map<Id<Link>, TransitStopFacility> byLink = new HashMap<>();
+			for (TransitStopFacility facility : entry.getValue()) {
+				if (facility.getLinkId() != null) {
+					byLink.putIfAbsent(facility.getLinkId(), facility);
+				}
+			}
+			index.put(entry.getKey(), byLink);
+		}
+		return index;
+	}
+
+	// The first position of each link in a route, and of the first link
+	// which is not in the network.
+	private static class LinkPositions {
+
+		final Map<Id<Link>, Integer> first = new HashMap<>();
+		final int firstMissing;
+
+		LinkPositions(List<Link> links) {
+			int missing = Integer.MAX_VALUE;
+			for (int i = links.size() - 1; i >= 0; i--) {
+				Link link = links.get(i);
+				if (link == null) {
+					missing = i;
+				} else {
+					first.put(link.getId(), i);
+				}
+			}
+			firstMissing = missing;
+		}
+
+		int of(Id<Link> linkId) {
+			Integer position = first.get(linkId);
+			return position != null ? position : Integer.MAX_VALUE;
+		}
+
+	}
+
 	private static MNode getmNode(NetworkModel networkModel, org.openstreetmap.josm.data.osm.Node osmNode) {
 		MNode mNode = networkModel.nodes().get(osmNode);
 		return mNode;
 	}
 
-	private static List<Link> getLinks(List<MLink> route, Network network) {
-		return route.stream().map(link -> network.getLinks().get(link.getId())).collect(Collectors.toList());
+	private static List<Link> getLinks(List<MLink> route, Map<MLink, Link> links) {
+		return route.stream().map(links::get).collect(Collectors.toList());
 	}
 
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package org.matsim.contrib.josm.model;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Link;
@@ -8,19 +11,23 @@ import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.pt.transitSchedule.api.*;
-import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.*;
-import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class Importer {
 
@@ -29,35 +36,76 @@ public class Importer {
 
 	HashMap<Id<TransitStopFacility>, Relation> stops = new HashMap<>();
 	HashMap<Way, List<MLink>> way2Links = new HashMap<>();
-	HashMap<Node, org.openstreetmap.josm.data.osm.Node> node2OsmNode = new HashMap<>();
+	HashMap<String, org.openstreetmap.josm.data.osm.Node> nodeId2OsmNode = new HashMap<>();
 	HashMap<Id<Link>, Way> linkId2Way = new HashMap<>();
 	private DataSet dataSet;
 	private Scenario sourceScenario;
+	private final NetworkModel sourceModel;
 	private HashMap<org.openstreetmap.josm.data.osm.Node, MNode> nodes = new HashMap<>();
+	private final List<String> pendingNodeIds = new ArrayList<>();
+	private final List<Coord> pendingNodeCoords = new ArrayList<>();
 
 	public Importer(File network, File schedule) {
 		this.network = network;
 		this.schedule = schedule;
+		this.sourceModel = null;
 	}
 
 	public Importer(Scenario scenario) {
 		this.sourceScenario = scenario;
 		this.network = null;
 		this.schedule = null;
+		this.sourceModel = null;
+	}
+
+	/**
+	 * Imports the network of a converted layer directly, without exporting it
+	 * to a {@link Scenario} first. Transit is not copied, so this is only for
+	 * models without stop areas and lines. Like the export, the import fails
+	 * with an {@link IllegalArgumentException} if node or link ids are not
+	 * unique.
+	 */
+	public Importer(NetworkModel networkModel) {
+		this.sourceModel = networkModel;
+		this.network = null;
+		this.schedule = null;
 	}
 
 	public MATSimLayer createMatsimLayer() {
+		return createMatsimLayer(NullProgressMonitor.INSTANCE);
+	}
+
+	/**
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the monitor is canceled meanwhile, no layer is created then
+	 */
+	public MATSimLayer createMatsimLayer(ProgressMonitor progressMonitor) {
 		dataSet = new DataSet();
-		if (sourceScenario == null) {
-			sourceScenario = readScenario();
+		if (sourceModel != null) {
+			convertModel(progressMonitor);
+		} else if (sourceScenario == null) {
+			// the network goes straight into the data set, only the
+			// schedule is read into a scenario
+			readNetwork(progressMonitor);
+			sourceScenario = readSchedule();
+		} else {
+			convertNetwork(progressMonitor);
 		}
-		convertNetwork();
-		if (Preferences.isSupportTransit()) {
+		if (Preferences.isSupportTransit() && sourceScenario != null) {
 			convertStops();
 			convertLines();
 		}
 		NetworkModel networkModel = NetworkModel.createNetworkModel(dataSet, way2Links);
-		networkModel.visitAll();
+		// the nodes and links are already built, only nodes that are part
+		// of a link would survive a conversion
+		Set<MNode> linkNodes = new LinkedHashSet<>();
+		for (List<MLink> links : way2Links.values()) {
+			for (MLink link : links) {
+				linkNodes.add(link.getFromNode());
+				linkNodes.add(link.getToNode());
+			}
+		}
+		networkModel.visitImported(linkNodes);
 		for (Line line : networkModel.lines().values()) {
 			TransitLine matsimLine = sourceScenario.getTransitSchedule().getTransitLines().get(line.getMatsimId());
 			for (Route route : line.getRoutes()) {
@@ -70,87 +118,170 @@ public class Importer {
 		return new MATSimLayer(dataSet, network == null ? MATSimLayer.createNewName() : network.getName(), network == null ? null : network, networkModel);
 	}
 
-	private Scenario readScenario() {
+	private void readNetwork(ProgressMonitor progressMonitor) {
+		NetworkStreamReader reader = new NetworkStreamReader(new NetworkStreamReader.Sink() {
+			@Override
+			public void node(String id, double x, double y) {
+				addNode(id, new Coord(x, y));
+			}
+
+			@Override
+			public void link(String id, String from, String to, double length, double freespeed, double capacity, double permlanes, Set<String> modes, String type) {
+				addLink(Id.createLinkId(id), from, to, length, freespeed, capacity, permlanes, modes, type);
+			}
+		});
+		try {
+			reader.read(network, progressMonitor);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		flushNodes();
+	}
+
+	private Scenario readSchedule() {
 		Config config = ConfigUtils.createConfig();
 		if (schedule != null) {
 			config.transit().setUseTransit(true);
 		}
 		Scenario scenario = ScenarioUtils.createScenario(config);
-		MatsimNetworkReader reader = new MatsimNetworkReader(scenario.getNetwork());
-		reader.readFile(network.getAbsolutePath());
 		if (schedule != null) {
 			new TransitScheduleReader(scenario).readFile(schedule.getAbsolutePath());
 		}
 		return scenario;
 	}
 
-	private void convertNetwork() {
-		for (Node node : sourceScenario.getNetwork().getNodes().values()) {
-			EastNorth eastNorth = new EastNorth(node.getCoord().getX(), node.getCoord().getY());
-			LatLon latLon = ProjectionRegistry.getProjection().eastNorth2latlon(eastNorth);
-			org.openstreetmap.josm.data.osm.Node nodeOsm = new org.openstreetmap.josm.data.osm.Node(latLon);
+	private void convertNetwork(ProgressMonitor progressMonitor) {
+		progressMonitor.beginTask(tr("Importing network"), sourceScenario.getNetwork().getLinks().size());
+		try {
+			for (Node node : sourceScenario.getNetwork().getNodes().values()) {
+				addNode(node.getId().toString(), node.getCoord());
+			}
+			int done = 0;
+			for (Link link : sourceScenario.getNetwork().getLinks().values()) {
+				addLink(link.getId(), link.getFromNode().getId().toString(), link.getToNode().getId().toString(), link.getLength(),
+						link.getFreespeed(), link.getCapacity(), link.getNumberOfLanes(), link.getAllowedModes(), NetworkUtils.getType(link));
+				done = NetworkModel.tick(progressMonitor, done);
+			}
+			flushNodes();
+		} finally {
+			progressMonitor.finishTask();
+		}
+	}
+
+	private void convertModel(ProgressMonitor progressMonitor) {
+		progressMonitor.beginTask(tr("Importing network"), sourceModel.getWay2Links().size());
+		try {
+			for (MNode node : sourceModel.nodes().values()) {
+				addNode(node.getId().toString(), node.getCoord());
+			}
+			int done = 0;
+			for (List<MLink> links : sourceModel.getWay2Links().values()) {
+				for (MLink link : links) {
+					// the road type only survives an export if it is included
+					addLink(link.getId(), link.getFromNode().getId().toString(), link.getToNode().getId().toString(), link.getLength(),
+							link.getFreespeed(), link.getCapacity(), link.getNumberOfLanes(), link.getAllowedModes(),
+							Preferences.includeRoadType() ? link.getType() : null);
+				}
+				done = NetworkModel.tick(progressMonitor, done);
+			}
+			flushNodes();
+		} finally {
+			progressMonitor.finishTask();
+		}
+	}
+
+	// Nodes are collected until a link needs them, so that their coordinates
+	// can be transformed together.
+	private void addNode(String id, Coord coord) {
+		pendingNodeIds.add(id);
+		pendingNodeCoords.add(coord);
+	}
+
+	private void flushNodes() {
+		LatLon[] latLons = Projections.toLatLon(pendingNodeCoords);
+		for (int i = 0; i < latLons.length; i++) {
+			String id = pendingNodeIds.get(i);
+			// links are attached to nodes by id, so a duplicate would merge
+			// two nodes, e.g. if a "matsim:id" tag was copied
+			if (nodeId2OsmNode.containsKey(id)) {
+				throw new IllegalArgumentException(tr("There is more than one node with id {0}", id));
+			}
+			org.openstreetmap.josm.data.osm.Node nodeOsm = new org.openstreetmap.josm.data.osm.Node(latLons[i]);
 
 			// set id of MATSim node as tag, as actual id of new MATSim node is
 			// set as corresponding OSM node id
-			nodeOsm.put(NodeConversionRules.ID, node.getId().toString());
-			node2OsmNode.put(node, nodeOsm);
+			nodeOsm.put(NodeConversionRules.ID, id);
+			nodeId2OsmNode.put(id, nodeOsm);
 			dataSet.addPrimitive(nodeOsm);
-			MNode newNode = new MNode(nodeOsm, node.getCoord());
-			newNode.setOrigId(node.getId().toString());
+			MNode newNode = new MNode(nodeOsm, pendingNodeCoords.get(i));
+			newNode.setOrigId(id);
 			nodes.put(nodeOsm, newNode);
 		}
+		pendingNodeIds.clear();
+		pendingNodeCoords.clear();
+	}
 
-		for (Link link : sourceScenario.getNetwork().getLinks().values()) {
-			Way way = new Way();
-			org.openstreetmap.josm.data.osm.Node fromNode = node2OsmNode.get(link.getFromNode());
-			way.addNode(fromNode);
-			org.openstreetmap.josm.data.osm.Node toNode = node2OsmNode.get(link.getToNode());
-			way.addNode(toNode);
-			// set id of link as tag, as actual id of new link is set as
-			// corresponding way id
-			way.put(LinkConversionRules.ID, link.getId().toString());
-			way.put(LinkConversionRules.FREESPEED, String.valueOf(link.getFreespeed()));
-			way.put(LinkConversionRules.CAPACITY, String.valueOf(link.getCapacity()));
-			way.put(LinkConversionRules.LENGTH, String.valueOf(link.getLength()));
-			way.put(LinkConversionRules.PERMLANES, String.valueOf(link.getNumberOfLanes()));
-
-            if (NetworkUtils.getType(link)!= null){
-                way.put(LinkConversionRules.TYPE, String.valueOf(NetworkUtils.getType(link)));
-            }
-//            if (EmissionUtils.getHbefaRoadType(link)!= null){
-//                way.put(LinkConversionRules.HBEFA, String.valueOf(EmissionUtils.getHbefaRoadType(link)));
-//            }
-
-            StringBuilder modes = new StringBuilder();
-			for (String mode : link.getAllowedModes()) {
-				modes.append(mode);
-				if (link.getAllowedModes().size() > 1) {
-					// multiple values are separated by ";"
-					modes.append(";");
-				}
+	private void addLink(Id<Link> id, String from, String to, double length, double freespeed, double capacity, double permlanes, Set<String> allowedModes, String type) {
+		if (!pendingNodeIds.isEmpty()) {
+			flushNodes();
+		}
+		if (linkId2Way.containsKey(id)) {
+			throw new IllegalArgumentException(tr("There is more than one link with id {0}", id));
+		}
+		Way way = new Way();
+		org.openstreetmap.josm.data.osm.Node fromNode = nodeId2OsmNode.get(from);
+		way.addNode(fromNode);
+		org.openstreetmap.josm.data.osm.Node toNode = nodeId2OsmNode.get(to);
+		way.addNode(toNode);
+		// set id of link as tag, as actual id of new link is set as
+		// corresponding way id
+		way.put(LinkConversionRules.ID, id.toString());
+		way.put(LinkConversionRules.FREESPEED, String.valueOf(freespeed));
+		way.put(LinkConversionRules.CAPACITY, String.valueOf(capacity));
+		way.put(LinkConversionRules.LENGTH, String.valueOf(length));
+		way.put(LinkConversionRules.PERMLANES, String.valueOf(permlanes));
+
+		if (type != null) {
+			way.put(LinkConversionRules.TYPE, type);
+		}
+//		if (EmissionUtils.getHbefaRoadType(link)!= null){
+//			way.put(LinkConversionRules.HBEFA, String.valueOf(EmissionUtils.getHbefaRoadType(link)));
+//		}
+
+		StringBuilder modes = new StringBuilder();
+		for (String mode : allowedModes) {
+			modes.append(mode);
+			if (allowedModes.size() > 1) {
+				// multiple values are separated by ";"
+				modes.append(";");
 			}
-			way.put(LinkConversionRules.MODES, modes.toString());
-
-			dataSet.addPrimitive(way);
-			MLink newLink = new MLink(nodes.get(fromNode), nodes.get(toNode));
-			newLink.setFreespeed(link.getFreespeed());
-			newLink.setCapacity(link.getCapacity());
-			newLink.setLength(link.getLength());
-			newLink.setNumberOfLanes(link.getNumberOfLanes());
-			newLink.setAllowedModes(link.getAllowedModes());
-			newLink.setOrigId(link.getId().toString());
-			newLink.setType(NetworkUtils.getType(link));
-			newLink.setSegments(Collections.singletonList(new WaySegment(way, 0)));
-			way2Links.put(way, Collections.singletonList(newLink));
-			linkId2Way.put(link.getId(), way);
 		}
+		way.put(LinkConversionRules.MODES, modes.toString());
+
+		dataSet.addPrimitive(way);
+		MLink newLink = new MLink(nodes.get(fromNode), nodes.get(toNode));
+		newLink.setFreespeed(freespeed);
+		newLink.setCapacity(capacity);
+		newLink.setLength(length);
+		newLink.setNumberOfLanes(permlanes);
+		newLink.setAllowedModes(ModeSets.intern(allowedModes));
+		newLink.setOrigId(id.toString());
+		newLink.setType(type);
+		newLink.setSegments(Collections.singletonList(new WaySegment(way, 0)));
+		way2Links.put(way, Collections.singletonList(newLink));
+		linkId2Way.put(id, way);
 	}
 
 	private void convertStops() {
-		for (TransitStopFacility stop : sourceScenario.getTransitSchedule().getFacilities().values()) {
-			EastNorth eastNorth = new EastNorth(stop.getCoord().getX(), stop.getCoord().getY());
-			LatLon latLon = ProjectionRegistry.getProjection().eastNorth2latlon(eastNorth);
-			org.openstreetmap.josm.data.osm.Node platform = new org.openstreetmap.josm.data.osm.Node(latLon);
+		List<TransitStopFacility> facilities = new ArrayList<>(sourceScenario.getTransitSchedule().getFacilities().values());
+		List<Coord> coords = new ArrayList<>(facilities.size());
+		for (TransitStopFacility stop : facilities) {
+			coords.add(stop.getCoord());
+		}
+		LatLon[] latLons = Projections.toLatLon(coords);
+		for (int i = 0; i < latLons.length; i++) {
+			TransitStopFacility stop = facilities.get(i);
+			org.openstreetmap.josm.data.osm.Node platform = new org.openstreetmap.josm.data.osm.Node(latLons[i]);
 			platform.put("public_transport", "platform");
 			if (stop.getName() != null) {
 				platform.put("name", stop.getName());
@@ -1,40 +1,102 @@
 package org.matsim.contrib.josm.model;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.pt.utils.CreatePseudoNetwork;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
+/**
+ * Converts OSM layers into new {@link MATSimLayer}s. The conversions taking a
+ * {@link ProgressMonitor} throw a
+ * {@link java.util.concurrent.CancellationException} if it is canceled, and
+ * no layer is created then.
+ */
 public class LayerConverter {
 
 	public static MATSimLayer convertToPseudoNetwork(OsmDataLayer osmDataLayer) {
+		return convertToPseudoNetwork(osmDataLayer, NullProgressMonitor.INSTANCE);
+	}
 
-		NetworkModel networkModel = NetworkModel.createNetworkModel(osmDataLayer.data);
-		networkModel.visitAll();
+	public static MATSimLayer convertToPseudoNetwork(OsmDataLayer osmDataLayer, ProgressMonitor monitor) {
+		return convertToPseudoNetwork(osmDataLayer.data, monitor);
+	}
 
-		Scenario targetScenario = Export.toScenario(networkModel);
-		new CreatePseudoNetwork(targetScenario.getTransitSchedule(), targetScenario.getNetwork(), "pt_")
-				.createNetwork();
+	/**
+	 * Converts the data set, which is only locked to take its primitives. It
+	 * may be edited meanwhile, but such edits may only partly reach the new
+	 * layer.
+	 */
+	public static MATSimLayer convertToPseudoNetwork(DataSet data, ProgressMonitor monitor) {
+		monitor.beginTask(tr("Converting to MATSim Network"), 4);
+		NetworkModel networkModel = NetworkModel.createDetachedNetworkModel(data);
+		try {
+			networkModel.visitAll(monitor.createSubTaskMonitor(1, false));
 
-		Importer importer = new Importer(targetScenario);
-		return importer.createMatsimLayer();
+			Scenario targetScenario = Export.toScenario(networkModel, monitor.createSubTaskMonitor(1, false));
+			new CreatePseudoNetwork(targetScenario.getTransitSchedule(), targetScenario.getNetwork(), "pt_")
+					.createNetwork();
+			monitor.worked(1);
+			NetworkModel.checkCanceled(monitor);
+
+			Importer importer = new Importer(targetScenario);
+			return importer.createMatsimLayer(monitor.createSubTaskMonitor(1, false));
+		} finally {
+			// the new layer has its own model, this one is not needed anymore
+			networkModel.dispose();
+			monitor.finishTask();
+		}
 	}
 
 	public static MATSimLayer convertWithFullTransit(OsmDataLayer osmLayer) {
+		return convertWithFullTransit(osmLayer, NullProgressMonitor.INSTANCE);
+	}
+
+	public static MATSimLayer convertWithFullTransit(OsmDataLayer osmLayer, ProgressMonitor monitor) {
+		return convertWithFullTransit(osmLayer.data, monitor);
+	}
 
+	/**
+	 * Converts the data set, which is only locked to take its primitives. It
+	 * may be edited meanwhile, but such edits may only partly reach the new
+	 * layer.
+	 */
+	public static MATSimLayer convertWithFullTransit(DataSet data, ProgressMonitor monitor) {
+		monitor.beginTask(tr("Converting to MATSim Network"), 3);
 		// convert layer data
-		NetworkModel networkModel = NetworkModel.createNetworkModel((osmLayer).data);
-		networkModel.visitAll();
+		NetworkModel networkModel = NetworkModel.createDetachedNetworkModel(data);
+		try {
+			networkModel.visitAll(monitor.createSubTaskMonitor(1, false));
+
+			boolean clean = !Preferences.isSupportTransit() && Preferences.isCleanNetwork();
+			boolean hasTransit = Preferences.isSupportTransit()
+					&& !(networkModel.stopAreas().isEmpty() && networkModel.lines().isEmpty());
+			if (!clean && !hasTransit) {
+				// neither the cleaner nor the schedule needs a MATSim scenario,
+				// so the network is copied into the new layer directly
+				monitor.worked(1);
+				return new Importer(networkModel).createMatsimLayer(monitor.createSubTaskMonitor(1, false));
+			}
 
-		Scenario exportedScenario = Export.toScenario(networkModel);
+			Scenario exportedScenario = Export.toScenario(networkModel, monitor.createSubTaskMonitor(1, false));
 
-		// check if network should be cleaned
-		if ((!Preferences.isSupportTransit()) && Preferences.isCleanNetwork()) {
-			new NetworkCleaner().run(exportedScenario.getNetwork());
+			// check if network should be cleaned
+			if (clean) {
+				new NetworkCleaner().run(exportedScenario.getNetwork());
+				NetworkModel.checkCanceled(monitor);
+			}
+			Importer importer = new Importer(exportedScenario);
+			return importer.createMatsimLayer(monitor.createSubTaskMonitor(1, false));
+		} finally {
+			// the new layer has its own model, this one is not needed anymore
+			networkModel.dispose();
+			monitor.finishTask();
 		}
-		Importer importer = new Importer(exportedScenario);
-		return importer.createMatsimLayer();
 	}
 
 }
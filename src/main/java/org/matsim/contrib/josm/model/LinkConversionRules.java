@@ -1,8 +1,8 @@
 package org.matsim.contrib.josm.model;
 
 
-import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.matsim.api.core.v01.TransportMode;
@@ -24,31 +24,64 @@ public class LinkConversionRules {
         return String.valueOf(way.getUniqueId()) + "_" + increment + (backward ? "_r" : "");
     }
 
-    static String getOrigId(Way way, String id, boolean backward) {
+    static String getOrigId(String matsimId, String id, boolean backward) {
         String origId;
-        if (way.hasKey(ID)) {
-            origId = way.get(ID) + (backward ? "_r" : "");
+        if (matsimId != null) {
+            origId = matsimId + (backward ? "_r" : "");
         } else {
             origId = id;
         }
         return origId;
     }
 
-    static boolean isBackward(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    /**
+     * Derives all conversion attributes of the way from a single copy of its tags.
+     */
+    static WayAttributes compile(Way way) {
+        final Map<String, String> keys = way.getKeys();
+        final OsmConvertDefaults.OsmWayDefaults defaults = getWayDefaults(keys);
+
+        final boolean forward = isForward(keys, defaults);
+        final boolean backward = isBackward(keys, defaults);
+        final Double freespeed = getFreespeed(keys, defaults);
+        final Double nofLanesPerDirection = getLanesPerDirection(keys, defaults, forward, backward);
+        final Double capacity = getCapacity(keys, defaults, nofLanesPerDirection);
+        final Set<String> modes = getModes(keys, defaults);
+        final String type = getType(keys, freespeed);
+        final String hbefaType = getHbefaType(keys, freespeed);
+        final Double taggedLength = getTaggedLength(keys);
+
+        return new WayAttributes(forward, backward, freespeed, nofLanesPerDirection, capacity,
+                modes, type, hbefaType, taggedLength, keys.get(ID));
+    }
+
+    private static boolean hasTag(Map<String, String> keys, String key, String... values) {
+        String value = keys.get(key);
+        if (value != null) {
+            for (String candidate : values) {
+                if (value.equals(candidate)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isBackward(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults) {
         boolean backward;
         if (defaults != null) {
             backward = !defaults.oneway;
-            if (way.hasTag("oneway", "yes", "true", "1")) {
+            if (hasTag(keys, "oneway", "yes", "true", "1")) {
                 backward = false;
-            } else if (way.hasTag("oneway", "-1")) {
+            } else if (hasTag(keys, "oneway", "-1")) {
                 backward = true;
-            } else if (way.hasTag("oneway", "no")) {
+            } else if (hasTag(keys, "oneway", "no")) {
                 backward = true;
             }
             if (defaults.hierarchy > Preferences.getMatsimFilterHierarchy()) {
                 backward = false;
             }
-            if (way.hasTag("access", "no")) {
+            if (hasTag(keys, "access", "no")) {
                 backward = false;
             }
         } else {
@@ -57,26 +90,21 @@ public class LinkConversionRules {
         return backward;
     }
 
-    static boolean isForward(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static boolean isForward(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults) {
         boolean forward;
         if (defaults != null) {
-            if (defaults.oneway) {
-                forward = true;
-            } else {
-                forward = true;
-            }
-
-            if (way.hasTag("oneway", "yes", "true", "1")) {
+            forward = true;
+            if (hasTag(keys, "oneway", "yes", "true", "1")) {
                 forward = true;
-            } else if (way.hasTag("oneway", "-1")) {
+            } else if (hasTag(keys, "oneway", "-1")) {
                 forward = false;
-            } else if (way.hasTag("oneway", "no")) {
+            } else if (hasTag(keys, "oneway", "no")) {
                 forward = true;
             }
             if (defaults.hierarchy > Preferences.getMatsimFilterHierarchy()) {
                 forward = false;
             }
-            if (way.hasTag("access", "no")) {
+            if (hasTag(keys, "access", "no")) {
                 forward = false;
             }
         } else {
@@ -85,29 +113,30 @@ public class LinkConversionRules {
         return forward;
     }
 
-    static Set<String> getModes(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static Set<String> getModes(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults) {
         Set<String> modes = null;
-        if (way.getKeys().containsKey(MODES)) {
-            modes = new HashSet<>(Arrays.asList(way.getKeys().get(MODES).split(";")));
+        if (keys.containsKey(MODES)) {
+            modes = ModeSets.parse(keys.get(MODES));
         }
         if (defaults != null) {
             if (modes == null) {
-                modes = new HashSet<>();
-                if (way.getKeys().containsKey(NetworkModel.TAG_RAILWAY)) {
-                    modes.add(TransportMode.pt);
+                Set<String> defaultModes = new HashSet<>();
+                if (keys.containsKey(NetworkModel.TAG_RAILWAY)) {
+                    defaultModes.add(TransportMode.pt);
                 }
-                if (way.getKeys().containsKey(NetworkModel.TAG_HIGHWAY)) {
-                    modes.add(TransportMode.car);
+                if (keys.containsKey(NetworkModel.TAG_HIGHWAY)) {
+                    defaultModes.add(TransportMode.car);
                 }
+                modes = ModeSets.intern(defaultModes);
             }
         }
         return modes;
     }
 
-    static Double getCapacity(Way way, OsmConvertDefaults.OsmWayDefaults defaults, Double nofLanesPerDirection) {
+    static Double getCapacity(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults, Double nofLanesPerDirection) {
         Double capacity = null;
-        if (way.getKeys().containsKey(CAPACITY)) {
-            capacity = parseDoubleIfPossible(way.getKeys().get(CAPACITY));
+        if (keys.containsKey(CAPACITY)) {
+            capacity = parseDoubleIfPossible(keys.get(CAPACITY));
         }
         if (defaults != null) {
             if (capacity == null) {
@@ -117,16 +146,16 @@ public class LinkConversionRules {
         return capacity;
     }
 
-    static Double getLanesPerDirection(Way way, OsmConvertDefaults.OsmWayDefaults defaults, boolean forward, boolean backward) {
+    static Double getLanesPerDirection(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults, boolean forward, boolean backward) {
         Double nofLanesPerDirection = null;
-        if (way.getKeys().containsKey(PERMLANES)) {
-            nofLanesPerDirection = parseDoubleIfPossible(way.getKeys().get(PERMLANES));
+        if (keys.containsKey(PERMLANES)) {
+            nofLanesPerDirection = parseDoubleIfPossible(keys.get(PERMLANES));
         }
         if (defaults != null) {
             if (nofLanesPerDirection == null) {
                 nofLanesPerDirection = defaults.lanesPerDirection;
-                if (way.getKeys().containsKey("lanes")) {
-                    Double noOfLanes = parseDoubleIfPossible(way.getKeys().get("lanes"));
+                if (keys.containsKey("lanes")) {
+                    Double noOfLanes = parseDoubleIfPossible(keys.get("lanes"));
                     if (noOfLanes != null) {
                         if (forward && backward) {
                             nofLanesPerDirection = noOfLanes / 2.0;
@@ -140,16 +169,16 @@ public class LinkConversionRules {
         return nofLanesPerDirection;
     }
 
-    static Double getFreespeed(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static Double getFreespeed(Map<String, String> keys, OsmConvertDefaults.OsmWayDefaults defaults) {
         Double freespeed = null;
-        if (way.getKeys().containsKey(FREESPEED)) {
-            freespeed = parseDoubleIfPossible(way.getKeys().get(FREESPEED));
+        if (keys.containsKey(FREESPEED)) {
+            freespeed = parseDoubleIfPossible(keys.get(FREESPEED));
         }
         if (freespeed == null) {
             if (defaults != null) {
                 freespeed = defaults.freespeed;
-                if (way.getKeys().containsKey("maxspeed")) {
-                    Double maxspeedInKmH = parseDoubleIfPossible(way.getKeys().get("maxspeed"));
+                if (keys.containsKey("maxspeed")) {
+                    Double maxspeedInKmH = parseDoubleIfPossible(keys.get("maxspeed"));
                     if (maxspeedInKmH != null) {
                         freespeed = maxspeedInKmH / 3.6; // convert km/h to m/s
                     }
@@ -160,15 +189,14 @@ public class LinkConversionRules {
     }
 
 
-    static String getType(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static String getType(Map<String, String> keys, Double freespeed) {
         String type = null;
-        if (way.getKeys().containsKey(TYPE)) {
-            type = way.getKeys().get(TYPE);
+        if (keys.containsKey(TYPE)) {
+            type = keys.get(TYPE);
         }
         if (type == null) {
-            if (way.getKeys().containsKey("highway")) {
-                type = way.getKeys().get("highway");
-                Double freespeed = getFreespeed(way, defaults);
+            if (keys.containsKey("highway")) {
+                type = keys.get("highway");
                 if (type != null && freespeed != null) {
                     type = String.format("%s_%d", type, Math.round(freespeed * 3.6));
                 }
@@ -178,23 +206,10 @@ public class LinkConversionRules {
         return type;
     }
 
-    static boolean isMatsimWay(Way way) {
-        final OsmConvertDefaults.OsmWayDefaults defaults = getWayDefaults(way);
-
-        final boolean forward = isForward(way, defaults);
-        final boolean backward = isBackward(way, defaults);
-        final Double freespeed = getFreespeed(way, defaults);
-        final Double nofLanesPerDirection = getLanesPerDirection(way, defaults, forward, backward);
-        final Double capacity = getCapacity(way, defaults, nofLanesPerDirection);
-        final Set<String> modes = getModes(way, defaults);
-
-        return capacity != null && freespeed != null && nofLanesPerDirection != null && modes != null;
-    }
-
-    static Double getTaggedLength(Way way) {
+    static Double getTaggedLength(Map<String, String> keys) {
         Double taggedLength = null;
-        if (way.getKeys().containsKey(LENGTH)) {
-            taggedLength = parseDoubleIfPossible(way.getKeys().get(LENGTH));
+        if (keys.containsKey(LENGTH)) {
+            taggedLength = parseDoubleIfPossible(keys.get(LENGTH));
         }
         return taggedLength;
     }
@@ -207,12 +222,16 @@ public class LinkConversionRules {
         }
     }
 
-    static OsmConvertDefaults.OsmWayDefaults getWayDefaults(Way way) {
+    /**
+     * @return the conversion defaults for the highway or railway tag, or null
+     *         if there are none
+     */
+    public static OsmConvertDefaults.OsmWayDefaults getWayDefaults(Map<String, String> keys) {
         String wayType = null;
-        if (way.getKeys().containsKey(NetworkModel.TAG_HIGHWAY)) {
-            wayType = way.getKeys().get(NetworkModel.TAG_HIGHWAY);
-        } else if (way.getKeys().containsKey(NetworkModel.TAG_RAILWAY)) {
-            wayType = way.getKeys().get(NetworkModel.TAG_RAILWAY);
+        if (keys.containsKey(NetworkModel.TAG_HIGHWAY)) {
+            wayType = keys.get(NetworkModel.TAG_HIGHWAY);
+        } else if (keys.containsKey(NetworkModel.TAG_RAILWAY)) {
+            wayType = keys.get(NetworkModel.TAG_RAILWAY);
         }
         return wayType != null ? OsmConvertDefaults.getWayDefaults().get(wayType) : null;
     }
@@ -223,17 +242,16 @@ public class LinkConversionRules {
     Transport Planning
     (https://link.springer.com/content/pdf/10.1007%2Fs11067-017-9378-6.pdf)
     */
-    static String getHbefaType(Way way, OsmConvertDefaults.OsmWayDefaults defaults) {
+    static String getHbefaType(Map<String, String> keys, Double freespeed) {
 
         String hbefaType = null;
-        if (way.getKeys().containsKey(HBEFA)) {
-            hbefaType = way.getKeys().get(HBEFA);
+        if (keys.containsKey(HBEFA)) {
+            hbefaType = keys.get(HBEFA);
         }
 
         if (hbefaType == null) {
-            Double freespeed = getFreespeed(way, defaults);
-            String highway = way.getKeys().get("highway");
-            if (way.getKeys().containsKey("highway") && freespeed != null) {
+            String highway = keys.get("highway");
+            if (keys.containsKey("highway") && freespeed != null) {
 
                 if (highway.equals("motorway") || highway.equals("motorway_link")) {
                     hbefaType = String.format("%s/%d", "Urban/Motor", Math.round(freespeed * 3.6));
@@ -61,4 +61,10 @@ public class MATSimLayer extends OsmDataLayer {
     public NetworkModel getNetworkModel() {
         return networkModel;
     }
+
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        networkModel.dispose();
+    }
 }
@@ -9,12 +9,21 @@ import org.openstreetmap.josm.data.osm.WaySegment;
 
 public class MLink {
 	private boolean reverseWayDirection = false;
-	private Double length;
-	private Double freespeed;
-	private Double capacity;
-	private Double numberOfLanes;
+	// Primitive fields, since there is one MLink per link of the network.
+	// Which of them are set is kept apart, so that a value tagged as NaN is
+	// still told from an unset one.
+	private static final int LENGTH = 1;
+	private static final int FREESPEED = 2;
+	private static final int CAPACITY = 4;
+	private static final int NUMBER_OF_LANES = 8;
+	private double length = Double.NaN;
+	private double freespeed = Double.NaN;
+	private double capacity = Double.NaN;
+	private double numberOfLanes = Double.NaN;
+	private byte set;
 	private Set<String> allowedModes;
 	private String origId;
+	private Id<Link> id;
 	private List<WaySegment> segments;
 	private MNode fromNode;
 	private MNode toNode;
@@ -28,37 +37,89 @@ public class MLink {
 	}
 
 	public void setLength(Double length) {
-		this.length = length;
+		this.length = length != null ? length : Double.NaN;
+		mark(LENGTH, length != null);
 	}
 
 	public Double getLength() {
+		return hasLength() ? length : null;
+	}
+
+	public boolean hasLength() {
+		return (set & LENGTH) != 0;
+	}
+
+	/**
+	 * @return the length, without boxing it, NaN if it is not set
+	 */
+	public double getLengthValue() {
 		return length;
 	}
 
 	public void setFreespeed(Double freespeed) {
-		this.freespeed = freespeed;
+		this.freespeed = freespeed != null ? freespeed : Double.NaN;
+		mark(FREESPEED, freespeed != null);
 	}
 
 	public Double getFreespeed() {
+		return hasFreespeed() ? freespeed : null;
+	}
+
+	public boolean hasFreespeed() {
+		return (set & FREESPEED) != 0;
+	}
+
+	/**
+	 * @return the freespeed, without boxing it, NaN if it is not set
+	 */
+	public double getFreespeedValue() {
 		return freespeed;
 	}
 
 	public void setCapacity(Double capacity) {
-		this.capacity = capacity;
+		this.capacity = capacity != null ? capacity : Double.NaN;
+		mark(CAPACITY, capacity != null);
 	}
 
 	public Double getCapacity() {
+		return hasCapacity() ? capacity : null;
+	}
+
+	public boolean hasCapacity() {
+		return (set & CAPACITY) != 0;
+	}
+
+	/**
+	 * @return the capacity, without boxing it, NaN if it is not set
+	 */
+	public double getCapacityValue() {
 		return capacity;
 	}
 
 	public void setNumberOfLanes(Double numberOfLanes) {
-		this.numberOfLanes = numberOfLanes;
+		this.numberOfLanes = numberOfLanes != null ? numberOfLanes : Double.NaN;
+		mark(NUMBER_OF_LANES, numberOfLanes != null);
 	}
 
 	public Double getNumberOfLanes() {
+		return hasNumberOfLanes() ? numberOfLanes : null;
+	}
+
+	public boolean hasNumberOfLanes() {
+		return (set & NUMBER_OF_LANES) != 0;
+	}
+
+	/**
+	 * @return the number of lanes, without boxing it, NaN if it is not set
+	 */
+	public double getNumberOfLanesValue() {
 		return numberOfLanes;
 	}
 
+	private void mark(int field, boolean isSet) {
+		set = (byte) (isSet ? set | field : set & ~field);
+	}
+
 	public void setAllowedModes(Set<String> allowedModes) {
 		this.allowedModes = allowedModes;
 	}
@@ -69,6 +130,7 @@ public class MLink {
 
 	public void setOrigId(String origId) {
 		this.origId = origId;
+		this.id = null;
 	}
 
 	public String getOrigId() {
@@ -100,7 +162,10 @@ public class MLink {
 	}
 
 	public Id<Link> getId() {
-		return Id.createLinkId(getOrigId());
+		if (id == null) {
+			id = Id.createLinkId(getOrigId());
+		}
+		return id;
 	}
 
 	public MNode getFromNode() {
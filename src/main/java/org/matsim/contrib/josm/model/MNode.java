@@ -1,10 +1,12 @@
 package org.matsim.contrib.josm.model;
 
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
 import org.openstreetmap.josm.data.osm.Node;
 
 public class MNode {
 	private String origId;
+	private Id<org.matsim.api.core.v01.network.Node> id;
 	private Coord coord;
 	private Node osmNode;
 
@@ -15,12 +17,20 @@ public class MNode {
 
 	public void setOrigId(String origId) {
 		this.origId = origId;
+		this.id = null;
 	}
 
 	public String getOrigId() {
 		return origId;
 	}
 
+	public Id<org.matsim.api.core.v01.network.Node> getId() {
+		if (id == null) {
+			id = Id.createNodeId(getOrigId());
+		}
+		return id;
+	}
+
 	public Coord getCoord() {
 		return coord;
 	}
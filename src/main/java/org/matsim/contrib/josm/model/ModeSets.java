@@ -0,0 +1,54 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical, immutable sets of allowed modes. A network has only a handful
+ * of distinct mode combinations, so all links with the same modes share one
+ * set instance, and equal sets from this registry are also identical.
+ */
+public final class ModeSets {
+
+	private static final Map<Set<String>, Set<String>> canonical = new ConcurrentHashMap<>();
+
+	private ModeSets() {
+	}
+
+	/**
+	 * @return the canonical set equal to the given modes, or null for null
+	 */
+	public static Set<String> intern(Set<String> modes) {
+		if (modes == null) {
+			return null;
+		}
+		Set<String> interned = canonical.get(modes);
+		if (interned == null) {
+			Set<String> copy = Collections.unmodifiableSet(new HashSet<>(modes));
+			interned = canonical.putIfAbsent(copy, copy);
+			if (interned == null) {
+				interned = copy;
+			}
+		}
+		return interned;
+	}
+
+	/**
+	 * @return the canonical set of the modes in a ";"-separated tag value
+	 */
+	public static Set<String> parse(String tagValue) {
+		return intern(new HashSet<>(Arrays.asList(tagValue.split(";"))));
+	}
+
+	/**
+	 * @return the number of distinct mode sets seen so far
+	 */
+	public static int size() {
+		return canonical.size();
+	}
+
+}
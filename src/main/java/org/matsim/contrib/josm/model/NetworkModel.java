@@ -1,20 +1,32 @@
 package org.matsim.contrib.josm.model;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import javax.swing.SwingUtilities;
+
 import org.matsim.api.core.v01.Coord;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
-import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -32,9 +44,12 @@ import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
 import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
 import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
 import org.openstreetmap.josm.data.osm.visitor.OsmPrimitiveVisitor;
+import org.openstreetmap.josm.data.projection.ProjectionChangeListener;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.spi.preferences.IPreferences;
-import org.openstreetmap.josm.tools.Pair;
+import org.openstreetmap.josm.spi.preferences.PreferenceChangedListener;
 
 import javafx.beans.property.ReadOnlyMapProperty;
 import javafx.beans.property.ReadOnlyMapWrapper;
@@ -51,30 +66,34 @@ public class NetworkModel {
 
 		@Override
 		public void dataChanged(DataChangedEvent dataChangedEvent) {
+			wayAttributes.clear();
+			nodeRelevance.clear();
 			visitAll();
-			fireNotifyDataChanged();
 		}
 
 		@Override
 		// convert all referred elements of the moved node
 		public void nodeMoved(NodeMovedEvent moved) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			aggregatePrimitivesVisitor.visit(moved.getNode());
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
 		}
 
 		@Override
 		public void otherDatasetChange(AbstractDatasetChangedEvent arg0) {
+			// e.g. a filter change, which makes primitives (un)usable
+			nodeRelevance.clear();
 		}
 
 		@Override
 		// convert added primitive as well as the ones connected to it
 		public void primitivesAdded(PrimitivesAddedEvent added) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			for (OsmPrimitive primitive : added.getPrimitives()) {
 				if (primitive instanceof Way) {
 					Way way = (Way) primitive;
+					// its tags may have changed while it was not in the data set
+					wayAttributes.remove(way);
 					aggregatePrimitivesVisitor.visit(way);
 					for (Node node : way.getNodes()) {
 						aggregatePrimitivesVisitor.visit(node);
@@ -85,32 +104,31 @@ public class NetworkModel {
 					aggregatePrimitivesVisitor.visit((org.openstreetmap.josm.data.osm.Node) primitive);
 				}
 			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
 		}
 
 		@Override
 		// delete any MATSim reference to the removed element and invoke new
 		// conversion of referring elements
 		public void primitivesRemoved(PrimitivesRemovedEvent primitivesRemoved) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			for (OsmPrimitive primitive : primitivesRemoved.getPrimitives()) {
 				if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
 					aggregatePrimitivesVisitor.visit(((org.openstreetmap.josm.data.osm.Node) primitive));
 				} else if (primitive instanceof Way) {
+					wayAttributes.remove(primitive);
 					aggregatePrimitivesVisitor.visit((Way) primitive);
 				} else if (primitive instanceof Relation) {
 					aggregatePrimitivesVisitor.visit((Relation) primitive);
 				}
 			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
 		}
 
 		@Override
 		// convert affected relation
 		public void relationMembersChanged(RelationMembersChangedEvent arg0) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			aggregatePrimitivesVisitor.visit(arg0.getRelation());
 			for (OsmPrimitive primitive : arg0.getRelation().getMemberPrimitivesList()) {
 				if (primitive instanceof org.openstreetmap.josm.data.osm.Node) {
@@ -121,17 +139,17 @@ public class NetworkModel {
 					aggregatePrimitivesVisitor.visit((Relation) primitive);
 				}
 			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
 		}
 
 		@Override
 		// convert affected elements and other connected elements
 		public void tagsChanged(TagsChangedEvent changed) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			for (OsmPrimitive primitive : changed.getPrimitives()) {
 				if (primitive instanceof Way) {
 					Way way = (Way) primitive;
+					wayAttributes.remove(way);
 					aggregatePrimitivesVisitor.visit(way);
 					for (Node node : way.getNodes()) {
 						aggregatePrimitivesVisitor.visit(node);
@@ -150,14 +168,13 @@ public class NetworkModel {
 					aggregatePrimitivesVisitor.visit((Relation) primitive);
 				}
 			}
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
 		}
 
 		@Override
 		// convert affected elements and other connected elements
 		public void wayNodesChanged(WayNodesChangedEvent changed) {
-			AggregatePrimitives aggregatePrimitivesVisitor = new AggregatePrimitives();
+			AggregatePrimitives aggregatePrimitivesVisitor = beginChange();
 			for (Node node : changed.getChangedWay().getNodes()) {
 				aggregatePrimitivesVisitor.visit(node);
 			}
@@ -169,8 +186,53 @@ public class NetworkModel {
 				}
 			}
 			aggregatePrimitivesVisitor.visit((changed.getChangedWay()));
-			aggregatePrimitivesVisitor.finished();
-			fireNotifyDataChanged();
+			endChange(aggregatePrimitivesVisitor);
+		}
+
+	}
+
+	// Hands the events of the data set to the converting listener, or queues
+	// them while the model is built. See buildNetworkModel(DataSet).
+	private class QueueingDataSetListener implements DataSetListener {
+
+		@Override
+		public void dataChanged(DataChangedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void nodeMoved(NodeMovedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void primitivesAdded(PrimitivesAddedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void primitivesRemoved(PrimitivesRemovedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void relationMembersChanged(RelationMembersChangedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void tagsChanged(TagsChangedEvent event) {
+			dispatch(event);
+		}
+
+		@Override
+		public void wayNodesChanged(WayNodesChangedEvent event) {
+			dispatch(event);
 		}
 
 	}
@@ -178,6 +240,8 @@ public class NetworkModel {
 	final static String TAG_HIGHWAY = "highway";
 	final static String TAG_RAILWAY = "railway";
 
+	private static final int PROGRESS_STEP = 1000;
+
 	private ReadOnlyMapWrapper<Node, MNode> nodes = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	private final Map<Way, List<MLink>> way2Links;
 	private ReadOnlyMapWrapper<Relation, StopArea> stopAreas = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
@@ -185,6 +249,45 @@ public class NetworkModel {
 	private ReadOnlyMapWrapper<Relation, Route> routes = new ReadOnlyMapWrapper<>(FXCollections.observableHashMap());
 	private DataSet data;
 	private Collection<ScenarioDataChangedListener> listeners = new ArrayList<>();
+	// changed whenever a stop area is added, removed or replaced, so routes
+	// know when to recompute their stops
+	private volatile int stopAreasVersion;
+
+	// undisposed models, for diagnostics
+	private static final Set<NetworkModel> live = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+	private final IPreferences prefs;
+	private final DataSetListener converter = new NetworkModelDataSetListener();
+	private final DataSetListener dataSetListener = new QueueingDataSetListener();
+	// Events of the data set that arrived while the model is built, null
+	// when it is not. Guarded by the queue lock.
+	private final Object queueLock = new Object();
+	private List<AbstractDatasetChangedEvent> queuedEvents;
+	private final PreferenceChangedListener preferenceListener;
+	private final ProjectionChangeListener projectionListener;
+	// whether the listeners above are added, which detached models never do
+	private boolean following;
+
+	/**
+	 * Primitives touched since the last flush, if changes are coalesced.
+	 * See {@link Preferences#isCoalesceChanges()}. Only used on the EDT.
+	 */
+	private AggregatePrimitives pendingChanges;
+	private long flushedBatches;
+	private long flushedPrimitives;
+	private int lastBatchSize;
+
+	// Link attributes per way, compiled from its tags on first use. Entries
+	// are dropped when the tags change or the way leaves the data set, and
+	// everything is dropped when the conversion preferences change.
+	private final Map<Way, WayAttributes> wayAttributes = new ConcurrentHashMap<>();
+	// Whether a node becomes a MATSim node. Entries are dropped for every node
+	// that is touched by a change, and for the current and previous link
+	// nodes of every touched way, since their relevance depends on that way.
+	private final Map<Node, Boolean> nodeRelevance = new ConcurrentHashMap<>();
+	private final LongAdder wayAttributeHits = new LongAdder();
+	private final LongAdder wayAttributeMisses = new LongAdder();
+	private final LongAdder nodeRelevanceHits = new LongAdder();
+	private final LongAdder nodeRelevanceMisses = new LongAdder();
 
 	public static NetworkModel createNetworkModel(DataSet data) {
 		Config config = ConfigUtils.createConfig();
@@ -193,11 +296,56 @@ public class NetworkModel {
 	}
 
 	public static NetworkModel createNetworkModel(DataSet data, Map<Way, List<MLink>> way2Links) {
-		return new NetworkModel(data, org.openstreetmap.josm.spi.preferences.Config.getPref(), way2Links);
+		NetworkModel model = new NetworkModel(data, org.openstreetmap.josm.spi.preferences.Config.getPref(), way2Links);
+		model.follow();
+		return model;
+	}
+
+	/**
+	 * Creates a model for one conversion off the EDT, which does not follow
+	 * the data set, the preferences or the projection. The data set is only
+	 * locked to take the primitives, so it may be edited meanwhile, but such
+	 * edits may only partly reach the model.
+	 */
+	static NetworkModel createDetachedNetworkModel(DataSet data) {
+		return new NetworkModel(data, org.openstreetmap.josm.spi.preferences.Config.getPref(), new HashMap<>());
+	}
+
+	/**
+	 * Creates the model of the data set and converts all primitives, off the
+	 * EDT. The data set is only locked to take the primitives, so it may be
+	 * edited meanwhile. The events of those edits, and changes of the
+	 * conversion preferences or the projection, are queued from the start and
+	 * replayed after the conversion, until none are left. A primitive read
+	 * while it was edited is converted again then.
+	 *
+	 * @return the model, which nobody else has seen yet
+	 */
+	static NetworkModel buildNetworkModel(DataSet data) {
+		NetworkModel model = new NetworkModel(data, org.openstreetmap.josm.spi.preferences.Config.getPref(), new HashMap<>());
+		// before any listener is added
+		model.queuedEvents = new ArrayList<>();
+		model.follow();
+		try {
+			model.visitAll();
+			model.replayQueuedEvents();
+		} catch (RuntimeException e) {
+			model.dispose();
+			throw e;
+		}
+		return model;
 	}
 
 	public interface ScenarioDataChangedListener {
 		void notifyDataChanged();
+
+		/**
+		 * Called with what changed in one conversion pass. Listeners that can
+		 * update incrementally override this; the default refreshes everything.
+		 */
+		default void notifyDataChanged(ScenarioDataChangedEvent event) {
+			notifyDataChanged();
+		}
 	}
 
 	public void removeListener(ScenarioDataChangedListener listener) {
@@ -205,8 +353,12 @@ public class NetworkModel {
 	}
 
 	void fireNotifyDataChanged() {
+		fireNotifyDataChanged(new ScenarioDataChangedEvent());
+	}
+
+	void fireNotifyDataChanged(ScenarioDataChangedEvent event) {
 		for (ScenarioDataChangedListener listener : listeners) {
-			listener.notifyDataChanged();
+			listener.notifyDataChanged(event);
 		}
 	}
 
@@ -216,36 +368,378 @@ public class NetworkModel {
 
 	private NetworkModel(DataSet data, IPreferences prefs, Map<Way, List<MLink>> way2Links) {
 		this.data = data;
-		this.data.addDataSetListener(new NetworkModelDataSetListener());
-		prefs.addPreferenceChangeListener(e -> {
+		this.prefs = prefs;
+		preferenceListener = e -> {
 			if (e.getKey().equalsIgnoreCase("matsim_keepPaths")
 					|| e.getKey().equalsIgnoreCase("matsim_filterActive")
 					|| e.getKey().equalsIgnoreCase("matsim_filter_hierarchy")
 					|| e.getKey().equalsIgnoreCase("matsim_transit_lite")
 					|| e.getKey().startsWith("matsim_convertDefaults")) {
+				if (!queue(new DataChangedEvent(data))) {
+					wayAttributes.clear();
+					nodeRelevance.clear();
+					visitAll();
+				}
+			} else {
+				fireNotifyDataChanged();
+			}
+		};
+		// the registry only holds the listener weakly, the field keeps it alive
+		projectionListener = (oldValue, newValue) -> {
+			if (!queue(new DataChangedEvent(data))) {
 				visitAll();
 			}
-			fireNotifyDataChanged();
-		});
-		ProjectionRegistry.addProjectionChangeListener((oldValue, newValue) -> {
-			visitAll();
-			fireNotifyDataChanged();
-		});
+		};
 		this.way2Links = way2Links;
+		live.add(this);
+	}
+
+	private void follow() {
+		following = true;
+		data.addDataSetListener(dataSetListener);
+		prefs.addPreferenceChangeListener(preferenceListener);
+		ProjectionRegistry.addProjectionChangeListener(projectionListener);
+	}
+
+	/**
+	 * Stops following the data set, the preferences and the projection. The
+	 * model keeps its content but is not updated anymore.
+	 */
+	public void dispose() {
+		if (live.remove(this) && following) {
+			data.removeDataSetListener(dataSetListener);
+			prefs.removePreferenceChangeListener(preferenceListener);
+			ProjectionRegistry.removeProjectionChangeListener(projectionListener);
+		}
+	}
+
+	// converts the queued events until no more arrive, then stops queueing
+	private void replayQueuedEvents() {
+		while (true) {
+			List<AbstractDatasetChangedEvent> events;
+			synchronized (queueLock) {
+				events = queuedEvents;
+				if (events.isEmpty()) {
+					queuedEvents = null;
+					return;
+				}
+				queuedEvents = new ArrayList<>();
+			}
+			for (AbstractDatasetChangedEvent event : events) {
+				event.fire(converter);
+			}
+		}
+	}
+
+	// returns whether the event was queued, as the model is being built
+	private boolean queue(AbstractDatasetChangedEvent event) {
+		synchronized (queueLock) {
+			if (queuedEvents == null) {
+				return false;
+			}
+			queuedEvents.add(event);
+			return true;
+		}
+	}
+
+	private void dispatch(AbstractDatasetChangedEvent event) {
+		if (!queue(event)) {
+			event.fire(converter);
+		}
+	}
+
+	/**
+	 * @return the models that have not been disposed yet, as far as they are
+	 *         still reachable
+	 */
+	public static List<NetworkModel> liveModels() {
+		synchronized (live) {
+			return new ArrayList<>(live);
+		}
+	}
+
+	/**
+	 * @return how many {@link ScenarioDataChangedListener}s are registered
+	 */
+	public int getListenerCount() {
+		return listeners.size();
+	}
+
+	// Collects the primitives touched by one DataSet event. When changes are
+	// coalesced, all events on the EDT up to the next flush share the same
+	// aggregate. Events on other threads are converted right away, so the
+	// pending changes are never touched off the EDT.
+	private AggregatePrimitives beginChange() {
+		if (!Preferences.isCoalesceChanges() || !SwingUtilities.isEventDispatchThread()) {
+			return new AggregatePrimitives();
+		}
+		if (pendingChanges == null) {
+			pendingChanges = new AggregatePrimitives();
+			SwingUtilities.invokeLater(this::flush);
+		}
+		return pendingChanges;
+	}
+
+	private void endChange(AggregatePrimitives aggregatePrimitives) {
+		if (!SwingUtilities.isEventDispatchThread() || aggregatePrimitives != pendingChanges) {
+			convertBatch(aggregatePrimitives);
+		}
+	}
+
+	/**
+	 * Converts all primitives collected since the last flush in one pass and
+	 * notifies the listeners once. Called automatically on the next EDT tick
+	 * after a change, but may be called earlier, e.g. at a command boundary.
+	 * Called off the EDT, the flush is scheduled on it.
+	 */
+	public void flush() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(this::flush);
+			return;
+		}
+		if (pendingChanges != null) {
+			AggregatePrimitives batch = pendingChanges;
+			pendingChanges = null;
+			convertBatch(batch);
+		}
+	}
+
+	// Off the EDT, the pending changes are left for the next flush. Only new
+	// models are converted there, which have none yet.
+	private void dropPendingChanges() {
+		if (SwingUtilities.isEventDispatchThread()) {
+			pendingChanges = null;
+		}
+	}
+
+	private void convertBatch(AggregatePrimitives batch) {
+		ScenarioDataChangedEvent event = batch.finished();
+		flushedBatches++;
+		flushedPrimitives += batch.primitives.size();
+		lastBatchSize = batch.primitives.size();
+		fireNotifyDataChanged(event);
+	}
+
+	/**
+	 * @return the number of change batches converted so far
+	 */
+	public long getFlushedBatches() {
+		return flushedBatches;
+	}
+
+	/**
+	 * @return the number of primitives converted in all change batches so far
+	 */
+	public long getFlushedPrimitives() {
+		return flushedPrimitives;
+	}
+
+	/**
+	 * @return the number of primitives converted in the most recent change batch
+	 */
+	public int getLastBatchSize() {
+		return lastBatchSize;
 	}
 
 	public void visitAll() {
+		visitAll(NullProgressMonitor.INSTANCE);
+	}
+
+	/**
+	 * Converts all primitives, reporting the progress to the monitor.
+	 *
+	 * @throws CancellationException
+	 *             if the monitor is canceled meanwhile. The model is then
+	 *             incomplete and should be discarded.
+	 */
+	public void visitAll(ProgressMonitor monitor) {
+		// everything is converted anyway
+		dropPendingChanges();
+		Convert visitor = new Convert();
+		// copied, since the data set may be edited while a model is built
+		List<Node> allNodes;
+		List<Way> allWays;
+		List<Relation> allRelations;
+		Lock lock = data.getReadLock();
+		lock.lock();
+		try {
+			allNodes = new ArrayList<>(data.getNodes());
+			allWays = new ArrayList<>(data.getWays());
+			allRelations = new ArrayList<>(data.getRelations());
+		} finally {
+			lock.unlock();
+		}
+		monitor.beginTask(tr("Converting to MATSim"), allNodes.size() + allWays.size() + allRelations.size());
+		try {
+			int done = 0;
+			if (Preferences.isParallelProcessing()) {
+				visitNodesAndWaysInParallel(visitor, allNodes, allWays);
+				done = visitor.visited.size();
+				monitor.setTicks(done);
+				checkCanceled(monitor);
+			} else {
+				for (Node node : allNodes) {
+					visitor.visit(node);
+					done = tick(monitor, done);
+				}
+				for (Way way : allWays) {
+					visitor.visit(way);
+					done = tick(monitor, done);
+				}
+			}
+			for (Relation relation : allRelations) {
+				visitor.visit(relation);
+				done = tick(monitor, done);
+			}
+		} finally {
+			monitor.finishTask();
+		}
+		fireNotifyDataChanged(visitor.event);
+	}
+
+	// Counts one more primitive as done. The monitor only hears about every
+	// PROGRESS_STEP-th, as each update goes through the EDT.
+	static int tick(ProgressMonitor monitor, int done) {
+		done++;
+		if (done % PROGRESS_STEP == 0) {
+			monitor.setTicks(done);
+			checkCanceled(monitor);
+		}
+		return done;
+	}
+
+	static void checkCanceled(ProgressMonitor monitor) {
+		if (monitor.isCanceled()) {
+			throw new CancellationException();
+		}
+	}
+
+	/**
+	 * Like {@link #visitAll()}, but takes the given nodes and the links this
+	 * model was created with as they are, and only converts the relations.
+	 * For data sets that were just built from MATSim data by the
+	 * {@link Importer}, where converting the nodes and ways again would only
+	 * reproduce what is already there.
+	 */
+	void visitImported(Collection<MNode> importedNodes) {
+		dropPendingChanges();
 		Convert visitor = new Convert();
-		for (Node node : data.getNodes()) {
-			visitor.visit(node);
+		Map<Node, MNode> seed = new HashMap<>();
+		for (MNode node : importedNodes) {
+			seed.put(node.getOsmNode(), node);
+			visitor.event.nodeReplaced(null, node);
 		}
-		for (Way way : data.getWays()) {
-			visitor.visit(way);
+		nodes.putAll(seed);
+		visitor.visited.addAll(seed.keySet());
+		for (Map.Entry<Way, List<MLink>> entry : way2Links.entrySet()) {
+			visitor.event.linksReplaced(null, entry.getValue());
+			visitor.visited.add(entry.getKey());
 		}
 		for (Relation relation : data.getRelations()) {
 			visitor.visit(relation);
 		}
-		fireNotifyDataChanged();
+		fireNotifyDataChanged(visitor.event);
+	}
+
+	// Converts all nodes with fork-join, then all ways in independent shards,
+	// each into its own map. The results are merged into the model only
+	// after each phase, so the conversion itself only reads shared state.
+	// The outcome is the same as visiting the primitives one by one.
+	private void visitNodesAndWaysInParallel(Convert visitor, List<Node> allNodes, List<Way> allWays) {
+		List<MNode> convertedNodes = allNodes.parallelStream()
+				.map(visitor::convertNode)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+		for (Node node : allNodes) {
+			visitor.event.nodeReplaced(nodes.remove(node), null);
+		}
+		for (MNode node : convertedNodes) {
+			nodes.put(node.getOsmNode(), node);
+			visitor.event.nodeReplaced(null, node);
+		}
+		visitor.visited.addAll(allNodes);
+
+		int nShards = Math.max(1, ForkJoinPool.getCommonPoolParallelism() * 4);
+		int shardSize = (allWays.size() + nShards - 1) / nShards;
+		List<Map<Way, List<MLink>>> shards = IntStream.range(0, nShards).parallel()
+				.mapToObj(shard -> {
+					Map<Way, List<MLink>> shardLinks = new HashMap<>();
+					int end = Math.min(allWays.size(), (shard + 1) * shardSize);
+					for (int i = shard * shardSize; i < end; i++) {
+						Way way = allWays.get(i);
+						if (isUsableAndNotRemoved(way)) {
+							List<MLink> links = visitor.convertWay(way);
+							if (links != null) {
+								shardLinks.put(way, links);
+							}
+						}
+					}
+					return shardLinks;
+				})
+				.collect(Collectors.toList());
+		for (Way way : allWays) {
+			visitor.event.linksReplaced(way2Links.remove(way), null);
+		}
+		for (Map<Way, List<MLink>> shardLinks : shards) {
+			way2Links.putAll(shardLinks);
+			for (List<MLink> links : shardLinks.values()) {
+				visitor.event.linksReplaced(null, links);
+			}
+		}
+		visitor.visited.addAll(allWays);
+	}
+
+	WayAttributes getWayAttributes(Way way) {
+		WayAttributes attributes = wayAttributes.get(way);
+		if (attributes == null) {
+			wayAttributeMisses.increment();
+			attributes = LinkConversionRules.compile(way);
+			wayAttributes.put(way, attributes);
+		} else {
+			wayAttributeHits.increment();
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return how often the cached link attributes of a way could be reused
+	 */
+	public long getWayAttributeHits() {
+		return wayAttributeHits.sum();
+	}
+
+	/**
+	 * @return how often the link attributes of a way had to be derived from its tags
+	 */
+	public long getWayAttributeMisses() {
+		return wayAttributeMisses.sum();
+	}
+
+	/**
+	 * @return how often the cached relevance of a node could be reused
+	 */
+	public long getNodeRelevanceHits() {
+		return nodeRelevanceHits.sum();
+	}
+
+	/**
+	 * @return how often the relevance of a node had to be determined from its referrers
+	 */
+	public long getNodeRelevanceMisses() {
+		return nodeRelevanceMisses.sum();
+	}
+
+	private void invalidateRelevance(Way way) {
+		for (Node node : way.getNodes()) {
+			nodeRelevance.remove(node);
+		}
+		List<MLink> links = way2Links.get(way);
+		if (links != null) {
+			for (MLink link : links) {
+				nodeRelevance.remove(link.getFromNode().getOsmNode());
+				nodeRelevance.remove(link.getToNode().getOsmNode());
+			}
+		}
 	}
 
 	class AggregatePrimitives implements OsmPrimitiveVisitor {
@@ -255,6 +749,7 @@ public class NetworkModel {
 		@Override
 		public void visit(Node node) {
 			primitives.add(node);
+			nodeRelevance.remove(node);
 			// When a Node was touched, we need to look at ways (because their
 			// length may change)
 			// and at relations (because it may be a transit stop)
@@ -265,6 +760,7 @@ public class NetworkModel {
 		@Override
 		public void visit(Way way) {
 			primitives.add(way);
+			invalidateRelevance(way);
 			// When a Way is touched, we need to look at relations (because they
 			// may
 			// be transit routes which have changed now).
@@ -296,7 +792,7 @@ public class NetworkModel {
 			primitives.add(relation);
 		}
 
-		void finished() {
+		ScenarioDataChangedEvent finished() {
 			Convert visitor = new Convert();
 			for (Node node : OsmPrimitive.getFilteredList(primitives, Node.class)) {
 				visitor.visit(node);
@@ -307,6 +803,7 @@ public class NetworkModel {
 			for (Relation relation : OsmPrimitive.getFilteredList(primitives, Relation.class)) {
 				visitor.visit(relation);
 			}
+			return visitor.event;
 		}
 
 	}
@@ -323,52 +820,66 @@ public class NetworkModel {
 	class Convert implements OsmPrimitiveVisitor {
 
 		final Collection<OsmPrimitive> visited = new HashSet<>();
+		final ScenarioDataChangedEvent event = new ScenarioDataChangedEvent();
 
-		void convertWay(Way way) {
-			final OsmConvertDefaults.OsmWayDefaults defaults = LinkConversionRules.getWayDefaults(way);
+		// Returns the links for the way, or null if it is not a MATSim way.
+		// Only reads the model, so it may be called concurrently.
+		List<MLink> convertWay(Way way) {
+			final WayAttributes attributes = getWayAttributes(way);
 
-			final boolean forward = LinkConversionRules.isForward(way, defaults);
-			final boolean backward = LinkConversionRules.isBackward(way, defaults);
-			final Double freespeed = LinkConversionRules.getFreespeed(way, defaults);
-			final Double nofLanesPerDirection = LinkConversionRules.getLanesPerDirection(way, defaults, forward, backward);
-			final Double capacity = LinkConversionRules.getCapacity(way, defaults, nofLanesPerDirection);
-			final Set<String> modes = LinkConversionRules.getModes(way, defaults);
-			final String highwayType = LinkConversionRules.getType(way, defaults);
-			final String hbefaType = LinkConversionRules.getHbefaType(way, defaults);
+			final boolean forward = attributes.forward;
+			final boolean backward = attributes.backward;
+			final Double freespeed = attributes.freespeed;
+			final Double nofLanesPerDirection = attributes.lanesPerDirection;
+			final Double capacity = attributes.capacity;
+			final Set<String> modes = attributes.modes;
+			final String highwayType = attributes.type;
+			final String hbefaType = attributes.hbefaType;
 
-			final Double taggedLength = LinkConversionRules.getTaggedLength(way);
+			final Double taggedLength = attributes.taggedLength;
 
-			if (capacity != null && freespeed != null && nofLanesPerDirection != null && modes != null) {
+			if (attributes.isMatsimWay()) {
 
-				final List<Pair<Integer, Node>> nodeOrder = IntStream.range(0, way.getNodesCount())
-					.mapToObj(i -> new Pair<Integer, Node>(i, way.getNode(i))) // pairs the index of the node with the node itself
-					.filter(n ->nodes().containsKey(n.b)) // filter to only keep the interesting nodes
-					.collect(Collectors.toList()); // put these into a list
+				// Walk the nodes once. Segment lengths are summed in the same order
+				// as Way.getLength(), so the link lengths add up to exactly that.
+				final int nodeCount = way.getNodesCount();
+				final double[] segmentLengths = new double[Math.max(0, nodeCount - 1)];
+				double wayLength = 0;
+				for (int i = 1; i < nodeCount; i++) {
+					LatLon fromCoor = way.getNode(i - 1).getCoor();
+					LatLon toCoor = way.getNode(i).getCoor();
+					if (fromCoor != null && toCoor != null) {
+						segmentLengths[i - 1] = toCoor.greatCircleDistance(fromCoor);
+						wayLength += segmentLengths[i - 1];
+					}
+				}
 
 				List<MLink> links = new ArrayList<>();
 				long increment = 0;
-				for (int k = 1; k < nodeOrder.size(); k++) {
-					// from.a is the node index, from.b is the node itself
-					final Pair<Integer, Node> from = nodeOrder.get(k - 1);
-					// to.a is the node index, to.b is the node itself
-					final Pair<Integer, Node> to = nodeOrder.get(k);
-
-					final Way wayPart = new Way(); // the part of the way between nodeFrom (inclusive) and nodeTo (inclusive)
-					wayPart.setNodes(way.getNodes().subList(from.a, to.a + 1));
-					final List<WaySegment> segs = wayPart.getNodePairs(false).stream()
-						.map(pair -> WaySegment.forNodePair(way, pair.a, pair.b))
-						.collect(Collectors.toList());
-					final double wayPartLength = taggedLength == null
-						? wayPart.getLength()
-						: (way.getLength() <= 0 ? taggedLength : taggedLength * wayPart.getLength() / way.getLength());
-
-					// only create link, if both nodes were found, node could be null, since
-					// nodes outside a layer were dropped
-					if (nodes().get(from.b) != null && nodes().get(to.b) != null) {
+				int fromIndex = -1;
+				MNode fromNode = null;
+				for (int toIndex = 0; toIndex < nodeCount; toIndex++) {
+					// only the converted nodes split the way, nodes outside a layer were dropped
+					final MNode toNode = nodes.get(way.getNode(toIndex));
+					if (toNode == null) {
+						continue;
+					}
+					if (fromNode != null) {
+						// the segments of the way between fromNode (inclusive) and toNode (inclusive)
+						final List<WaySegment> segs = new ArrayList<>(toIndex - fromIndex);
+						double partLength = 0;
+						for (int i = fromIndex; i < toIndex; i++) {
+							segs.add(new WaySegment(way, i));
+							partLength += segmentLengths[i];
+						}
+						final double wayPartLength = taggedLength == null
+							? partLength
+							: (wayLength <= 0 ? taggedLength : taggedLength * partLength / wayLength);
+
 						if (forward) {
 							String id = LinkConversionRules.getId(way, increment, false);
-							String origId = LinkConversionRules.getOrigId(way, id, false);
-							MLink l = new MLink(nodes.get(from.b), nodes.get(to.b));
+							String origId = LinkConversionRules.getOrigId(attributes.matsimId, id, false);
+							MLink l = new MLink(fromNode, toNode);
 							l.setLength(wayPartLength);
 							l.setFreespeed(freespeed);
 							l.setCapacity(capacity);
@@ -382,8 +893,8 @@ public class NetworkModel {
 						}
 						if (backward) {
 							String id = LinkConversionRules.getId(way, increment, true);
-							String origId = LinkConversionRules.getOrigId(way, id, true);
-							MLink l = new MLink(nodes.get(to.b), nodes.get(from.b));
+							String origId = LinkConversionRules.getOrigId(attributes.matsimId, id, true);
+							MLink l = new MLink(toNode, fromNode);
 							l.setLength(wayPartLength);
 							l.setFreespeed(freespeed);
 							l.setCapacity(capacity);
@@ -396,11 +907,14 @@ public class NetworkModel {
 							l.setReverseWayDirection(true);
 							links.add(l);
 						}
+						increment++;
 					}
-					increment++;
+					fromNode = toNode;
+					fromIndex = toIndex;
 				}
-				way2Links.put(way, links);
+				return links;
 			}
+			return null;
 		}
 
 		private boolean isExplicitelyMatsimTagged(Way way) {
@@ -414,21 +928,49 @@ public class NetworkModel {
 		@Override
 		public void visit(Node node) {
 			if (visited.add(node)) {
-				nodes.remove(node);
-				if (isRelevant(node)) {
-					EastNorth eN = ProjectionRegistry.getProjection().latlon2eastNorth(node.getCoor());
-					MNode matsimNode = new MNode(node, new Coord(eN.getX(), eN.getY()));
-					matsimNode.setOrigId(NodeConversionRules.getOrigId(node));
+				MNode oldNode = nodes.remove(node);
+				MNode matsimNode = convertNode(node);
+				if (matsimNode != null) {
 					nodes.put(node, matsimNode);
 				}
+				event.nodeReplaced(oldNode, matsimNode);
+			}
+		}
+
+		// Returns the MATSim node for the node, or null if it is not relevant.
+		// Only reads the model, so it may be called concurrently.
+		MNode convertNode(Node node) {
+			if (isRelevant(node)) {
+				Coord coord = Projections.toCoord(node);
+				// a node without a position is left out, as are the links to it
+				if (coord != null) {
+					MNode matsimNode = new MNode(node, coord);
+					matsimNode.setOrigId(NodeConversionRules.getOrigId(node));
+					return matsimNode;
+				}
 			}
+			return null;
 		}
 
 		private boolean isRelevant(Node node) {
+			Boolean relevant = nodeRelevance.get(node);
+			if (relevant == null) {
+				nodeRelevanceMisses.increment();
+				relevant = determineRelevance(node);
+				if (node.getDataSet() != null) {
+					nodeRelevance.put(node, relevant);
+				}
+			} else {
+				nodeRelevanceHits.increment();
+			}
+			return relevant;
+		}
+
+		private boolean determineRelevance(Node node) {
 			if (isUsableAndNotRemoved(node)) {
 				Way junctionWay = null;
 				for (Way way : OsmPrimitive.getFilteredList(node.getReferrers(), Way.class)) {
-					if (isUsableAndNotRemoved(way) && LinkConversionRules.isMatsimWay(way)) {
+					if (isUsableAndNotRemoved(way) && getWayAttributes(way).isMatsimWay()) {
 						if (Preferences.isKeepPaths() || way.isFirstLastNode(node) || junctionWay != null || node.hasTag("public_transport", "stop_position")) {
 							return true;
 						}
@@ -442,10 +984,15 @@ public class NetworkModel {
 		@Override
 		public void visit(Way way) {
 			if (visited.add(way)) {
-				way2Links.remove(way);
+				List<MLink> oldLinks = way2Links.remove(way);
+				List<MLink> links = null;
 				if (isUsableAndNotRemoved(way)) {
-					convertWay(way);
+					links = convertWay(way);
+					if (links != null) {
+						way2Links.put(way, links);
+					}
 				}
+				event.linksReplaced(oldLinks, links);
 			}
 		}
 
@@ -454,13 +1001,18 @@ public class NetworkModel {
 			if (visited.add(relation)) {
 				if (Preferences.isSupportTransit()) {
 					Route oldRoute = findRoute(relation);
+					boolean wasDeleted = oldRoute != null && oldRoute.isDeleted();
 					Route newRoute = createTransitRoute(relation, oldRoute);
 					if (oldRoute != null && newRoute == null) {
 						oldRoute.setDeleted(true);
+						if (!wasDeleted) {
+							event.routeRemoved(oldRoute);
+						}
 					} else if (oldRoute == null && newRoute != null) {
 						Line tLine = findOrCreateTransitLine(relation);
 						tLine.addRoute(newRoute);
 						routes.put(relation, newRoute);
+						event.routeAdded(newRoute);
 					} else if (oldRoute != null) {
 						Line tLine = findOrCreateTransitLine(relation);
 						// The line the route is assigned to might have changed,
@@ -468,9 +1020,18 @@ public class NetworkModel {
 						searchAndRemoveRoute(oldRoute);
 						tLine.addRoute(newRoute);
 						routes.put(relation, newRoute);
+						if (wasDeleted) {
+							event.routeAdded(newRoute);
+						} else {
+							event.routeChanged(newRoute);
+						}
 					}
-					stopAreas.remove(relation);
-					createTransitStopFacility(relation);
+					StopArea oldStopArea = stopAreas.remove(relation);
+					StopArea newStopArea = createTransitStopFacility(relation);
+					if (oldStopArea != null || newStopArea != null) {
+						stopAreasVersion++;
+					}
+					event.stopAreaReplaced(oldStopArea, newStopArea);
 				}
 			}
 		}
@@ -481,11 +1042,12 @@ public class NetworkModel {
 				if (line != null) {
 					Route newRoute;
 					if (oldRoute == null) {
-						newRoute = new Route(relation, stopAreas, way2Links);
+						newRoute = new Route(relation, stopAreas, way2Links, () -> stopAreasVersion);
 					} else {
 						// Edit the previous object in place.
 						newRoute = oldRoute;
 						newRoute.setDeleted(false);
+						newRoute.invalidate();
 					}
 					return newRoute;
 				}
@@ -493,14 +1055,16 @@ public class NetworkModel {
 			return null; // not a route
 		}
 
-		private void createTransitStopFacility(Relation relation) {
+		private StopArea createTransitStopFacility(Relation relation) {
 			if (relation.hasTag("type", "public_transport") && relation.hasTag("public_transport", "stop_area")) {
 				StopArea stopArea = new StopArea(relation);
 				if (stopArea.getCoord() != null) {
 					stopArea.setLink(determineExplicitMatsimLink(relation));
 					stopAreas.put(relation, stopArea);
+					return stopArea;
 				}
 			}
+			return null;
 		}
 
 		private MLink determineExplicitMatsimLink(Relation relation) {
@@ -560,6 +1124,10 @@ public class NetworkModel {
 		return way2Links;
 	}
 
+	public DataSet getDataSet() {
+		return data;
+	}
+
 	public ReadOnlyMapProperty<Node, MNode> nodes() {
 		return nodes.getReadOnlyProperty();
 	}
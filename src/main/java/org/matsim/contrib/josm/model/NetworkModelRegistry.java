@@ -0,0 +1,155 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.SwingUtilities;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * One shared {@link NetworkModel} per data set, for the dialogs, validation
+ * tests and actions that look at the edit layer. MATSim layers bring their
+ * own model. For other layers the model is built on a background thread by
+ * the first {@link #acquire(OsmDataLayer)}, and handed out to everyone after
+ * that.
+ *
+ * Every acquire is paired with a {@link #release(OsmDataLayer)}. When the
+ * last user releases the model, it is disposed, so it no longer listens to
+ * the data set, the preferences and the projection.
+ */
+public final class NetworkModelRegistry {
+
+	// not the JOSM worker, since validation tests running there wait for models
+	private static final ExecutorService builder = Executors
+			.newSingleThreadExecutor(Utils.newThreadFactory("matsim-network-model-%d", Thread.NORM_PRIORITY));
+
+	private static final Map<DataSet, Entry> entries = new HashMap<>();
+
+	private static final class Entry {
+		final CompletableFuture<NetworkModel> model = new CompletableFuture<>();
+		int users;
+	}
+
+	private NetworkModelRegistry() {
+	}
+
+	/**
+	 * @return the network model of the layer, which is complete when the
+	 *         future is
+	 */
+	public static synchronized CompletableFuture<NetworkModel> acquire(OsmDataLayer layer) {
+		if (layer instanceof MATSimLayer) {
+			return CompletableFuture.completedFuture(((MATSimLayer) layer).getNetworkModel());
+		}
+		DataSet data = layer.data;
+		Entry entry = entries.get(data);
+		if (entry == null) {
+			Entry created = new Entry();
+			entries.put(data, created);
+			builder.execute(() -> build(data, created.model));
+			entry = created;
+		}
+		entry.users++;
+		return entry.model;
+	}
+
+	/**
+	 * Like {@link #acquire(OsmDataLayer)}, but waits for the model to be
+	 * built. Not to be called on the event dispatch thread.
+	 *
+	 * @throws java.util.concurrent.CompletionException
+	 *             if the model could not be built, it is released then
+	 */
+	public static NetworkModel acquireNow(OsmDataLayer layer) {
+		return join(layer, acquire(layer));
+	}
+
+	/**
+	 * For validation tests, which also run on the event dispatch thread, e.g.
+	 * before an upload. Off that thread like {@link #acquireNow(OsmDataLayer)}.
+	 * On it, the model is only acquired if it is already built, since the
+	 * thread must not wait for a conversion.
+	 *
+	 * @return the model, or null if it is still being built, nothing is
+	 *         acquired then
+	 * @throws java.util.concurrent.CompletionException
+	 *             if the model could not be built, it is released then
+	 */
+	public static NetworkModel acquireIfBuilt(OsmDataLayer layer) {
+		CompletableFuture<NetworkModel> model = acquire(layer);
+		if (!model.isDone() && SwingUtilities.isEventDispatchThread()) {
+			release(layer);
+			return null;
+		}
+		return join(layer, model);
+	}
+
+	private static NetworkModel join(OsmDataLayer layer, CompletableFuture<NetworkModel> model) {
+		try {
+			return model.join();
+		} catch (CompletionException e) {
+			release(layer);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a model acquired for the layer, and disposes it if nobody
+	 * else uses it. A model that could not be built is built anew by the
+	 * first acquire after all of its users released it.
+	 */
+	public static synchronized void release(OsmDataLayer layer) {
+		if (layer instanceof MATSimLayer) {
+			return;
+		}
+		Entry entry = entries.get(layer.data);
+		if (entry == null) {
+			Logging.warn("Network model of layer {0} released more often than acquired", layer.getName());
+			return;
+		}
+		if (--entry.users == 0) {
+			entries.remove(layer.data);
+			// a model still being built is disposed when it is done
+			entry.model.thenAccept(NetworkModel::dispose);
+		}
+	}
+
+	/**
+	 * @return how many users hold the shared model of the data set, 0 if there
+	 *         is none
+	 */
+	public static synchronized int getUsers(DataSet data) {
+		Entry entry = entries.get(data);
+		return entry != null ? entry.users : 0;
+	}
+
+	private static void build(DataSet data, CompletableFuture<NetworkModel> future) {
+		NetworkModel model;
+		try {
+			model = convert(data);
+		} catch (RuntimeException e) {
+			// its users see the failure, and release it as any other model
+			Logging.error(e);
+			future.completeExceptionally(e);
+			return;
+		}
+		// outside of the lock, since callbacks of the future may run right away
+		future.complete(model);
+	}
+
+	private static NetworkModel convert(DataSet data) {
+		// Not under the read lock of the data set, which would keep the EDT
+		// from editing until the whole data set is converted. The model
+		// queues the edits made meanwhile and converts them afterwards.
+		return NetworkModel.buildNetworkModel(data);
+	}
+
+}
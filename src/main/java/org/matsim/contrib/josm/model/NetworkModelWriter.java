@@ -0,0 +1,190 @@
+package org.matsim.contrib.josm.model;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the network of a {@link NetworkModel} as MATSim network XML straight
+ * from the model, without building a {@link org.matsim.api.core.v01.Scenario}
+ * first. The result reads back as the same network as writing
+ * {@link Export#toScenario(NetworkModel)} with a
+ * {@link org.matsim.core.network.io.NetworkWriter}. Road types are not
+ * written.
+ *
+ * Files ending in ".gz" are compressed on a separate thread while the XML is
+ * being written.
+ *
+ * Like adding them to a MATSim network, writing fails on duplicate node or
+ * link ids, e.g. from copied "matsim:id" tags, instead of producing a file
+ * MATSim cannot read.
+ */
+public class NetworkModelWriter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final NetworkModel networkModel;
+	private final String version;
+
+	/**
+	 * @param version
+	 *            the network file format, "v1" or "v2"
+	 */
+	public NetworkModelWriter(NetworkModel networkModel, String version) {
+		this.networkModel = networkModel;
+		this.version = "v1".equals(version) ? "v1" : "v2";
+	}
+
+	public void write(String filename) throws IOException {
+		if (filename.endsWith(".gz")) {
+			writeCompressed(filename);
+		} else {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), BUFFER_SIZE)) {
+				write(out);
+			}
+		}
+	}
+
+	private void writeCompressed(String filename) throws IOException {
+		PipedInputStream pipeIn = new PipedInputStream(BUFFER_SIZE);
+		PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
+		AtomicReference<IOException> compressionFailure = new AtomicReference<>();
+		Thread compressor = new Thread(() -> {
+			try (InputStream in = pipeIn; OutputStream out = new GZIPOutputStream(new FileOutputStream(filename), BUFFER_SIZE)) {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			} catch (IOException e) {
+				compressionFailure.set(e);
+			}
+		}, "MATSim network compression");
+		compressor.start();
+
+		IOException writeFailure = null;
+		try (OutputStream out = new BufferedOutputStream(pipeOut, BUFFER_SIZE)) {
+			write(out);
+		} catch (IOException e) {
+			writeFailure = e;
+		}
+		try {
+			compressor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing " + filename);
+		}
+		if (compressionFailure.get() != null) {
+			// the writer only fails because the compressor is gone
+			throw compressionFailure.get();
+		}
+		if (writeFailure != null) {
+			throw writeFailure;
+		}
+	}
+
+	/**
+	 * Writes the network to the stream, which is flushed but left open.
+	 *
+	 * @throws IOException
+	 *             also if node or link ids are not unique
+	 */
+	public void write(OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+			xml.writeStartDocument("UTF-8", "1.0");
+			xml.writeCharacters("\n");
+			xml.writeDTD("<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_" + version + ".dtd\">");
+			xml.writeCharacters("\n\n");
+			xml.writeStartElement("network");
+			xml.writeCharacters("\n\n");
+			Set<String> nodeIds = writeNodes(xml);
+			xml.writeCharacters("\n");
+			writeLinks(xml, nodeIds);
+			xml.writeCharacters("\n");
+			xml.writeEndElement();
+			xml.writeCharacters("\n");
+			xml.writeEndDocument();
+			xml.flush();
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		out.flush();
+	}
+
+	// returns the ids of the nodes written
+	private Set<String> writeNodes(XMLStreamWriter xml) throws XMLStreamException, IOException {
+		Set<String> nodeIds = new HashSet<>();
+		xml.writeCharacters("\t");
+		xml.writeStartElement("nodes");
+		xml.writeCharacters("\n");
+		for (MNode node : networkModel.nodes().values()) {
+			if (!nodeIds.add(node.getOrigId())) {
+				throw new IOException("Duplicate node id " + node.getOrigId());
+			}
+			xml.writeCharacters("\t\t");
+			xml.writeEmptyElement("node");
+			xml.writeAttribute("id", node.getOrigId());
+			xml.writeAttribute("x", Double.toString(node.getCoord().getX()));
+			xml.writeAttribute("y", Double.toString(node.getCoord().getY()));
+			xml.writeCharacters("\n");
+		}
+		xml.writeCharacters("\t");
+		xml.writeEndElement();
+		xml.writeCharacters("\n");
+		return nodeIds;
+	}
+
+	private void writeLinks(XMLStreamWriter xml, Set<String> nodeIds) throws XMLStreamException, IOException {
+		Set<String> linkIds = new HashSet<>();
+		xml.writeCharacters("\t");
+		xml.writeStartElement("links");
+		// the defaults of a new MATSim network, as used by Export
+		xml.writeAttribute("capperiod", "01:00:00");
+		xml.writeAttribute("effectivecellsize", "7.5");
+		xml.writeAttribute("effectivelanewidth", "3.75");
+		xml.writeCharacters("\n");
+		for (List<MLink> links : networkModel.getWay2Links().values()) {
+			for (MLink link : links) {
+				if (!linkIds.add(link.getOrigId())) {
+					throw new IOException("Duplicate link id " + link.getOrigId());
+				}
+				// guards against links whose end nodes are no longer in the model
+				if (!nodeIds.contains(link.getFromNode().getOrigId()) || !nodeIds.contains(link.getToNode().getOrigId())) {
+					throw new IOException("Link " + link.getOrigId() + " connects nodes that were not written");
+				}
+				xml.writeCharacters("\t\t");
+				xml.writeEmptyElement("link");
+				xml.writeAttribute("id", link.getOrigId());
+				xml.writeAttribute("from", link.getFromNode().getOrigId());
+				xml.writeAttribute("to", link.getToNode().getOrigId());
+				xml.writeAttribute("length", Double.toString(link.getLengthValue()));
+				xml.writeAttribute("freespeed", Double.toString(link.getFreespeedValue()));
+				xml.writeAttribute("capacity", Double.toString(link.getCapacityValue()));
+				xml.writeAttribute("permlanes", Double.toString(link.getNumberOfLanesValue()));
+				xml.writeAttribute("oneway", "1");
+				xml.writeAttribute("modes", String.join(",", link.getAllowedModes()));
+				xml.writeCharacters("\n");
+			}
+		}
+		xml.writeCharacters("\t");
+		xml.writeEndElement();
+		xml.writeCharacters("\n");
+	}
+
+}
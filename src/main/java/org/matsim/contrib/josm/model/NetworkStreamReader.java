@@ -0,0 +1,211 @@
+package org.matsim.contrib.josm.model;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads a MATSim network file (v1 or v2, optionally gzipped) with SAX and
+ * hands every node and link to a {@link Sink} as soon as it is parsed, so
+ * the network is never held as a whole.
+ *
+ * Only what the {@link Importer} keeps of a network is read: the id and
+ * coordinates of nodes, and the id, end nodes, length, freespeed, capacity,
+ * lanes, modes and type of links. Links without modes allow "car", as in a
+ * MATSim network. Everything else, e.g. the z coordinate, "origid", "oneway"
+ * and further attributes, is dropped, as it is on an import through a
+ * {@link org.matsim.api.core.v01.Scenario}.
+ *
+ * The file is not trusted: external entities are neither fetched nor
+ * expanded.
+ */
+class NetworkStreamReader {
+
+	interface Sink {
+		void node(String id, double x, double y);
+
+		void link(String id, String from, String to, double length, double freespeed, double capacity, double permlanes,
+				Set<String> modes, String type);
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Sink sink;
+
+	NetworkStreamReader(Sink sink) {
+		this.sink = sink;
+	}
+
+	void read(File file, ProgressMonitor monitor) throws IOException {
+		// progress is measured in kilobytes of the file as it is on disk
+		monitor.beginTask(tr("Reading network"), (int) Math.max(1, file.length() / 1024));
+		try (InputStream in = open(file, monitor)) {
+			SAXParser parser = newParser();
+			parser.parse(in, new Handler());
+		} catch (ParserConfigurationException | SAXException e) {
+			throw new IOException(tr("Error while parsing MATSim network file {0}", file), e);
+		} finally {
+			monitor.finishTask();
+		}
+	}
+
+	private static SAXParser newParser() throws ParserConfigurationException, SAXException {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setValidating(false);
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		try {
+			// the DTD is only needed for validation, don't go online for it
+			factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		} catch (SAXException e) {
+			// not supported by this parser, the handler does not resolve it
+		}
+		return factory.newSAXParser();
+	}
+
+	private static InputStream open(File file, ProgressMonitor monitor) throws IOException {
+		InputStream in = new ProgressInputStream(new FileInputStream(file), monitor);
+		if (file.getName().endsWith(".gz")) {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+		return new BufferedInputStream(in, BUFFER_SIZE);
+	}
+
+	private class Handler extends DefaultHandler {
+
+		private Attributes link;
+		private String linkType;
+		private boolean inTypeAttribute;
+		private final StringBuilder text = new StringBuilder();
+
+		@Override
+		public InputSource resolveEntity(String publicId, String systemId) {
+			// neither the DTD nor any other external entity is read
+			return new InputSource(new StringReader(""));
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			switch (qName) {
+			case "node":
+				sink.node(attributes.getValue("id"), Double.parseDouble(attributes.getValue("x")),
+						Double.parseDouble(attributes.getValue("y")));
+				break;
+			case "link":
+				// v2 files may carry the type as a nested attribute, so the
+				// link is handed over at its end tag
+				link = new AttributesImpl(attributes);
+				linkType = attributes.getValue("type");
+				break;
+			case "attribute":
+				if (link != null && "type".equals(attributes.getValue("name"))) {
+					inTypeAttribute = true;
+					text.setLength(0);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (inTypeAttribute) {
+				text.append(ch, start, length);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if ("attribute".equals(qName) && inTypeAttribute) {
+				linkType = text.toString().trim();
+				inTypeAttribute = false;
+			} else if ("link".equals(qName) && link != null) {
+				String modes = link.getValue("modes");
+				sink.link(link.getValue("id"), link.getValue("from"), link.getValue("to"),
+						Double.parseDouble(link.getValue("length")),
+						Double.parseDouble(link.getValue("freespeed")),
+						Double.parseDouble(link.getValue("capacity")),
+						Double.parseDouble(link.getValue("permlanes")),
+						parseModes(modes != null ? modes : "car"), linkType);
+				link = null;
+				linkType = null;
+			}
+		}
+
+		private Set<String> parseModes(String modes) {
+			Set<String> result = new HashSet<>();
+			for (String mode : modes.split(",")) {
+				String trimmed = mode.trim();
+				if (!trimmed.isEmpty()) {
+					result.add(trimmed);
+				}
+			}
+			return ModeSets.intern(result);
+		}
+
+	}
+
+	// Counts the bytes read from the file into the progress monitor.
+	private static class ProgressInputStream extends FilterInputStream {
+
+		private final ProgressMonitor monitor;
+		private long count;
+
+		ProgressInputStream(InputStream in, ProgressMonitor monitor) {
+			super(in);
+			this.monitor = monitor;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				advance(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				advance(n);
+			}
+			return n;
+		}
+
+		private void advance(int n) {
+			long before = count / 1024;
+			count += n;
+			if (count / 1024 != before) {
+				monitor.setTicks((int) (count / 1024));
+				NetworkModel.checkCanceled(monitor);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.contrib.josm.gui.Preferences;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+
+/**
+ * Coordinate transformations between MATSim coordinates, which are in the
+ * current JOSM projection, and lat/lon.
+ *
+ * Many coordinates are transformed in chunks, in parallel if
+ * {@link Preferences#isParallelProcessing()} is set. The projected
+ * coordinates of single nodes come from the node itself, which keeps them
+ * until the projection changes.
+ */
+public final class Projections {
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private Projections() {
+	}
+
+	/**
+	 * @return the lat/lon of each of the coordinates, in the same order
+	 */
+	public static LatLon[] toLatLon(List<Coord> coords) {
+		Projection projection = ProjectionRegistry.getProjection();
+		LatLon[] result = new LatLon[coords.size()];
+		int nChunks = (coords.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		IntStream chunks = IntStream.range(0, nChunks);
+		if (Preferences.isParallelProcessing() && nChunks > 1) {
+			chunks = chunks.parallel();
+		}
+		chunks.forEach(chunk -> {
+			int end = Math.min(coords.size(), (chunk + 1) * CHUNK_SIZE);
+			for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+				Coord coord = coords.get(i);
+				result[i] = projection.eastNorth2latlon(new EastNorth(coord.getX(), coord.getY()));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the coordinate of the node in the current projection, or null if
+	 *         the node has no position
+	 */
+	public static Coord toCoord(Node node) {
+		// cached by the node for the current projection
+		EastNorth eastNorth = node.getEastNorth();
+		return eastNorth != null ? new Coord(eastNorth.getX(), eastNorth.getY()) : null;
+	}
+
+}
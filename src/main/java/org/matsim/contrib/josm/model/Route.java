@@ -5,6 +5,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
 
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.pt.transitSchedule.api.Departure;
@@ -37,10 +39,26 @@ public class Route {
 	private StringProperty id = new SimpleStringProperty();
 	private StringProperty transportMode = new SimpleStringProperty();
 
+	// The stops and links are computed on first use and kept until the
+	// network model invalidates the route, which it does whenever it visits
+	// the route relation, i.e. when the relation, its members or their links
+	// change. The stops are also recomputed after any stop area changed.
+	private static final LongAdder stopComputations = new LongAdder();
+	private static final LongAdder routeComputations = new LongAdder();
+	private final IntSupplier stopAreasVersion;
+	private boolean stopsValid;
+	private int stopsVersion;
+	private boolean routeValid;
+
 	public Route(Relation _relation, Map<Relation, StopArea> stopAreas, Map<Way, List<MLink>> way2Links) {
+		this(_relation, stopAreas, way2Links, () -> 0);
+	}
+
+	Route(Relation _relation, Map<Relation, StopArea> stopAreas, Map<Way, List<MLink>> way2Links, IntSupplier stopAreasVersion) {
 		this.relation.setValue(_relation);
 		this.allStopAreas = stopAreas;
 		this.allLinks = way2Links;
+		this.stopAreasVersion = stopAreasVersion;
 		id.bind(Bindings.createStringBinding(this::computeMatsimId, relation));
 		transportMode.bind(Bindings.createStringBinding(() -> relation.get().get("route"), relation));
 	}
@@ -53,7 +71,12 @@ public class Route {
 		return deleted;
 	}
 
-	public ObservableList<RouteStop> getStops() {
+	public synchronized ObservableList<RouteStop> getStops() {
+		int version = stopAreasVersion.getAsInt();
+		if (stopsValid && stopsVersion == version) {
+			return stops;
+		}
+		stopComputations.increment();
 		stops.clear();
 		for (Relation stopAreaRelation : getStopAreaRelations()) {
 			// can be from platforms and stops. we can handle both,
@@ -65,9 +88,33 @@ public class Route {
 				stops.add(new RouteStop(facility, 0, 0));
 			}
 		}
+		stopsValid = true;
+		stopsVersion = version;
 		return stops;
 	}
 
+	/**
+	 * Drops the stops and links computed so far.
+	 */
+	synchronized void invalidate() {
+		stopsValid = false;
+		routeValid = false;
+	}
+
+	/**
+	 * @return how often the stops of any route were computed
+	 */
+	public static long getStopComputations() {
+		return stopComputations.sum();
+	}
+
+	/**
+	 * @return how often the links of any route were computed
+	 */
+	public static long getRouteComputations() {
+		return routeComputations.sum();
+	}
+
 	public StringProperty idProperty() {
 		return id;
 	}
@@ -80,10 +127,14 @@ public class Route {
 		return relation.get();
 	}
 
-	public ObservableList<MLink> getRoute() {
-		if (isExplicitelyMatsimTagged(relation.get()) || !Preferences.isTransitLite()) {
-			List<MLink> networkRoute = determineNetworkRoute(relation.get());
-			this.route.setAll(networkRoute);
+	public synchronized ObservableList<MLink> getRoute() {
+		if (!routeValid) {
+			if (isExplicitelyMatsimTagged(relation.get()) || !Preferences.isTransitLite()) {
+				routeComputations.increment();
+				List<MLink> networkRoute = determineNetworkRoute(relation.get());
+				this.route.setAll(networkRoute);
+			}
+			routeValid = true;
 		}
 		return route;
 	}
@@ -0,0 +1,131 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+
+/**
+ * Finds the routes of a {@link NetworkModel} that contain given primitives,
+ * either as their relation or as a member of it, without looking at the
+ * members of every route.
+ *
+ * The index follows the route changes of the model once it is added as a
+ * listener to it.
+ */
+public class RouteMembershipIndex implements NetworkModel.ScenarioDataChangedListener {
+
+	private final NetworkModel networkModel;
+	private final Map<OsmPrimitive, Set<Route>> routesByPrimitive = new HashMap<>();
+	// the route indexed for each relation and what it was indexed with, since
+	// the members may have changed by the time it is removed
+	private final Map<Relation, Route> routes = new HashMap<>();
+	private final Map<Relation, List<OsmPrimitive>> indexed = new HashMap<>();
+
+	public RouteMembershipIndex(NetworkModel networkModel) {
+		this.networkModel = networkModel;
+		rebuild();
+	}
+
+	/**
+	 * @return the routes containing any of the primitives
+	 */
+	public synchronized Set<Route> routesOf(Collection<? extends OsmPrimitive> primitives) {
+		Set<Route> result = new LinkedHashSet<>();
+		for (OsmPrimitive primitive : primitives) {
+			result.addAll(routesByPrimitive.getOrDefault(primitive, Collections.emptySet()));
+		}
+		return result;
+	}
+
+	/**
+	 * @return how many lines have at least one of the routes
+	 */
+	public int countLines(Set<Route> routes) {
+		if (routes.isEmpty()) {
+			return 0;
+		}
+		int count = 0;
+		for (Line line : networkModel.lines().values()) {
+			for (Route route : line.getRoutes()) {
+				if (routes.contains(route)) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized void notifyDataChanged() {
+		rebuild();
+	}
+
+	@Override
+	public synchronized void notifyDataChanged(ScenarioDataChangedEvent event) {
+		if (event.isEmpty()) {
+			return;
+		}
+		for (Route route : event.getRemovedRoutes()) {
+			if (routes.get(route.getRelation()) == route) {
+				remove(route.getRelation());
+			}
+		}
+		// a changed route may be a new object for the same relation
+		for (Route route : event.getChangedRoutes()) {
+			add(route);
+		}
+		for (Route route : event.getAddedRoutes()) {
+			add(route);
+		}
+	}
+
+	private void rebuild() {
+		routesByPrimitive.clear();
+		routes.clear();
+		indexed.clear();
+		for (Route route : networkModel.routes().values()) {
+			if (!route.isDeleted()) {
+				add(route);
+			}
+		}
+	}
+
+	private void add(Route route) {
+		Relation relation = route.getRelation();
+		remove(relation);
+		List<OsmPrimitive> primitives = new ArrayList<>(relation.getMemberPrimitivesList());
+		primitives.add(relation);
+		routes.put(relation, route);
+		indexed.put(relation, primitives);
+		for (OsmPrimitive primitive : primitives) {
+			routesByPrimitive.computeIfAbsent(primitive, p -> new LinkedHashSet<>()).add(route);
+		}
+	}
+
+	private void remove(Relation relation) {
+		Route route = routes.remove(relation);
+		List<OsmPrimitive> primitives = indexed.remove(relation);
+		if (primitives == null) {
+			return;
+		}
+		for (OsmPrimitive primitive : primitives) {
+			Set<Route> containing = routesByPrimitive.get(primitive);
+			if (containing != null) {
+				containing.remove(route);
+				if (containing.isEmpty()) {
+					routesByPrimitive.remove(primitive);
+				}
+			}
+		}
+	}
+
+}
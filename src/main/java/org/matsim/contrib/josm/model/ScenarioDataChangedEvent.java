@@ -0,0 +1,110 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The changes of a {@link NetworkModel} caused by one conversion pass.
+ *
+ * Nodes, links and stop areas are created anew whenever their primitives are
+ * converted again, so an edit shows up as the old object being removed and
+ * the new one being added. Routes are edited in place and show up as changed.
+ *
+ * @see NetworkModel.ScenarioDataChangedListener
+ */
+public class ScenarioDataChangedEvent {
+
+	private final Set<MNode> addedNodes = new HashSet<>();
+	private final Set<MNode> removedNodes = new HashSet<>();
+	private final Set<MLink> addedLinks = new HashSet<>();
+	private final Set<MLink> removedLinks = new HashSet<>();
+	private final Set<Route> addedRoutes = new HashSet<>();
+	private final Set<Route> removedRoutes = new HashSet<>();
+	private final Set<Route> changedRoutes = new HashSet<>();
+	private final Set<StopArea> addedStopAreas = new HashSet<>();
+	private final Set<StopArea> removedStopAreas = new HashSet<>();
+
+	void nodeReplaced(MNode oldNode, MNode newNode) {
+		if (oldNode != null) {
+			removedNodes.add(oldNode);
+		}
+		if (newNode != null) {
+			addedNodes.add(newNode);
+		}
+	}
+
+	void linksReplaced(Collection<MLink> oldLinks, Collection<MLink> newLinks) {
+		if (oldLinks != null) {
+			removedLinks.addAll(oldLinks);
+		}
+		if (newLinks != null) {
+			addedLinks.addAll(newLinks);
+		}
+	}
+
+	void stopAreaReplaced(StopArea oldStopArea, StopArea newStopArea) {
+		if (oldStopArea != null) {
+			removedStopAreas.add(oldStopArea);
+		}
+		if (newStopArea != null) {
+			addedStopAreas.add(newStopArea);
+		}
+	}
+
+	void routeAdded(Route route) {
+		addedRoutes.add(route);
+	}
+
+	void routeRemoved(Route route) {
+		removedRoutes.add(route);
+	}
+
+	void routeChanged(Route route) {
+		changedRoutes.add(route);
+	}
+
+	public boolean isEmpty() {
+		return addedNodes.isEmpty() && removedNodes.isEmpty() && addedLinks.isEmpty() && removedLinks.isEmpty()
+				&& addedRoutes.isEmpty() && removedRoutes.isEmpty() && changedRoutes.isEmpty()
+				&& addedStopAreas.isEmpty() && removedStopAreas.isEmpty();
+	}
+
+	public Set<MNode> getAddedNodes() {
+		return Collections.unmodifiableSet(addedNodes);
+	}
+
+	public Set<MNode> getRemovedNodes() {
+		return Collections.unmodifiableSet(removedNodes);
+	}
+
+	public Set<MLink> getAddedLinks() {
+		return Collections.unmodifiableSet(addedLinks);
+	}
+
+	public Set<MLink> getRemovedLinks() {
+		return Collections.unmodifiableSet(removedLinks);
+	}
+
+	public Set<Route> getAddedRoutes() {
+		return Collections.unmodifiableSet(addedRoutes);
+	}
+
+	public Set<Route> getRemovedRoutes() {
+		return Collections.unmodifiableSet(removedRoutes);
+	}
+
+	public Set<Route> getChangedRoutes() {
+		return Collections.unmodifiableSet(changedRoutes);
+	}
+
+	public Set<StopArea> getAddedStopAreas() {
+		return Collections.unmodifiableSet(addedStopAreas);
+	}
+
+	public Set<StopArea> getRemovedStopAreas() {
+		return Collections.unmodifiableSet(removedStopAreas);
+	}
+
+}
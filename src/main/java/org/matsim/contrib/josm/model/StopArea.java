@@ -2,6 +2,7 @@ package org.matsim.contrib.josm.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import com.vividsolutions.jts.geom.Geometry;
 import org.matsim.api.core.v01.Coord;
@@ -32,6 +33,13 @@ public class StopArea {
 
 	private MLink link;
 
+	// The platform location, for the projection it was computed in. The
+	// network model replaces the stop area when the relation or one of its
+	// members changes, so only the projection can change meanwhile.
+	private EastNorth platformLocation;
+	private boolean platformLocationKnown;
+	private Object platformProjectionKey;
+
 	public StopArea(Relation relation) {
 		this.relation = relation;
 		setIsBlockingLane(true);
@@ -72,7 +80,11 @@ public class StopArea {
 		return new Coord(eN.getX(), eN.getY());
 	}
 
-	private EastNorth getPlatformLocation() {
+	private synchronized EastNorth getPlatformLocation() {
+		Object projectionKey = ProjectionRegistry.getProjection().getCacheKey();
+		if (platformLocationKnown && Objects.equals(projectionKey, platformProjectionKey)) {
+			return platformLocation;
+		}
 		List<OsmPrimitive> nodes = new ArrayList<>();
 		for (RelationMember member : relation.getMembers()) {
 			if(!member.getMember().isIncomplete()) {
@@ -86,7 +98,13 @@ public class StopArea {
 				}
 			}
 		}
+		platformLocation = computePlatformLocation(nodes);
+		platformLocationKnown = true;
+		platformProjectionKey = projectionKey;
+		return platformLocation;
+	}
 
+	private static EastNorth computePlatformLocation(List<OsmPrimitive> nodes) {
 		com.vividsolutions.jts.geom.Geometry[] geometries = nodes.stream().map(prim -> new JTSConverter().convert(prim)).toArray(Geometry[]::new);
 		GeometryCollection geometryCollection = new GeometryCollection(geometries, new GeometryFactory());
 		Point centroid = geometryCollection.getCentroid();
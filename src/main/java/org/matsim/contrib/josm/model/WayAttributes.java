@@ -0,0 +1,44 @@
+package org.matsim.contrib.josm.model;
+
+import java.util.Set;
+
+/**
+ * The link attributes of a way, as derived by {@link LinkConversionRules}
+ * from its tags and the conversion defaults. Immutable, so it can be cached
+ * until the tags of the way or the conversion preferences change.
+ */
+public final class WayAttributes {
+
+	public final boolean forward;
+	public final boolean backward;
+	public final Double freespeed;
+	public final Double lanesPerDirection;
+	public final Double capacity;
+	public final Set<String> modes;
+	public final String type;
+	public final String hbefaType;
+	public final Double taggedLength;
+	public final String matsimId;
+
+	WayAttributes(boolean forward, boolean backward, Double freespeed, Double lanesPerDirection, Double capacity,
+			Set<String> modes, String type, String hbefaType, Double taggedLength, String matsimId) {
+		this.forward = forward;
+		this.backward = backward;
+		this.freespeed = freespeed;
+		this.lanesPerDirection = lanesPerDirection;
+		this.capacity = capacity;
+		this.modes = ModeSets.intern(modes);
+		this.type = type;
+		this.hbefaType = hbefaType;
+		this.taggedLength = taggedLength;
+		this.matsimId = matsimId;
+	}
+
+	/**
+	 * @return true if the way has everything needed to become MATSim links
+	 */
+	public boolean isMatsimWay() {
+		return capacity != null && freespeed != null && lanesPerDirection != null && modes != null;
+	}
+
+}
@@ -5,11 +5,12 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.event.ActionEvent;
 
 import org.openstreetmap.josm.actions.JosmAction;
-import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.gui.MainApplication;
-import org.openstreetmap.josm.gui.progress.swing.PleaseWaitProgressMonitor;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 /**
  * @author Nico
@@ -29,23 +30,34 @@ public class RepairAction extends JosmAction {
 
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		DataSet data = MainApplication.getLayerManager().getEditDataSet();
-		PleaseWaitProgressMonitor progMonitor = new PleaseWaitProgressMonitor(
-				"Validation");
-
-		test.startTest(progMonitor);
-		test.visit(data.allPrimitives());
-		test.endTest();
-		progMonitor.finishTask();
-		progMonitor.close();
-
-
-		// set up validator layer
-		OsmValidator.initializeErrorLayer();
-		MainApplication.getMap().validatorDialog.unfurlDialog();
-		MainApplication.getLayerManager().getEditLayer().validationErrors.clear();
-		MainApplication.getLayerManager().getEditLayer().validationErrors.addAll(test.getErrors());
-		MainApplication.getMap().validatorDialog.tree.setErrors(test.getErrors());
+		OsmDataLayer layer = MainApplication.getLayerManager().getEditLayer();
+		// the test may wait for the network model of the layer, so it runs
+		// in the background, as in the validator
+		PleaseWaitRunnable task = new PleaseWaitRunnable(tr("Validation")) {
+
+			@Override
+			protected void cancel() {
+				// the test polls the progress monitor
+			}
+
+			@Override
+			protected void realRun() {
+				test.startTest(getProgressMonitor().createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
+				test.visit(layer.data.allPrimitives());
+				test.endTest();
+			}
+
+			@Override
+			protected void finish() {
+				// set up validator layer
+				OsmValidator.initializeErrorLayer();
+				MainApplication.getMap().validatorDialog.unfurlDialog();
+				layer.validationErrors.clear();
+				layer.validationErrors.addAll(test.getErrors());
+				MainApplication.getMap().validatorDialog.tree.setErrors(test.getErrors());
+			}
+		};
+		MainApplication.worker.execute(task);
 	}
 
 
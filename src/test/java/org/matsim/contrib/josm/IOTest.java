@@ -1,7 +1,11 @@
 package org.matsim.contrib.josm;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -9,11 +13,18 @@ import java.util.List;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.josm.actions.NewNetworkAction;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.Export;
 import org.matsim.contrib.josm.model.Importer;
+import org.matsim.contrib.josm.model.LinkConversionRules;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModelWriter;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.population.routes.NetworkRoute;
@@ -21,10 +32,13 @@ import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.openstreetmap.josm.command.AddCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
@@ -34,6 +48,9 @@ public class IOTest {
 	@Rule
 	public JOSMTestRules test = new JOSMTestRules().preferences().projection();
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void readNetworkWithoutTransit() {
 		URL url = getClass().getResource("/test-input/pt-tutorial/multimodalnetwork.xml");
@@ -46,6 +63,136 @@ public class IOTest {
 		deleteAndUndeleteEverything(scenario, layer);
 	}
 
+	@Test
+	public void streamingNetworkExportMatchesNetworkWriter() throws IOException {
+		URL url = getClass().getResource("/test-input/pt-tutorial/multimodalnetwork.xml");
+		MATSimLayer layer = new Importer(new File(url.getFile()), null).createMatsimLayer();
+		Network expected = Export.toScenario(layer.getNetworkModel()).getNetwork();
+		for (String version : Arrays.asList("v1", "v2")) {
+			for (String suffix : Arrays.asList(".xml", ".xml.gz")) {
+				File file = folder.newFile("network_" + version + suffix);
+				new NetworkModelWriter(layer.getNetworkModel(), version).write(file.getPath());
+				Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+				new MatsimNetworkReader(scenario.getNetwork()).readFile(file.getPath());
+				compareNetworks(expected, scenario.getNetwork());
+			}
+		}
+	}
+
+	@Test
+	public void streamingNetworkImportMatchesNetworkReader() throws IOException {
+		// attributes the import drops, and a link without modes
+		File file = folder.newFile("network.xml");
+		Files.write(file.toPath(), Arrays.asList(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v1.dtd\">",
+				"<network>",
+				"<nodes>",
+				"<node id=\"1\" x=\"0.0\" y=\"0.0\" type=\"a\" origid=\"n1\"/>",
+				"<node id=\"2\" x=\"100.0\" y=\"0.0\"/>",
+				"</nodes>",
+				"<links capperiod=\"01:00:00\">",
+				"<link id=\"1\" from=\"1\" to=\"2\" length=\"100.0\" freespeed=\"10.0\" capacity=\"1000.0\" permlanes=\"1.0\" oneway=\"1\" origid=\"l1\"/>",
+				"<link id=\"2\" from=\"2\" to=\"1\" length=\"100.0\" freespeed=\"10.0\" capacity=\"1000.0\" permlanes=\"2.0\" oneway=\"1\" modes=\"car,bus\"/>",
+				"</links>",
+				"</network>"), StandardCharsets.UTF_8);
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		new MatsimNetworkReader(scenario.getNetwork()).readFile(file.getPath());
+		MATSimLayer layer = new Importer(file, null).createMatsimLayer();
+		compareNetworks(scenario.getNetwork(), Export.toScenario(layer.getNetworkModel()).getNetwork());
+	}
+
+	@Test
+	public void streamingNetworkImportDoesNotExpandExternalEntities() throws IOException {
+		File secret = folder.newFile("secret.txt");
+		Files.write(secret.toPath(), "secret".getBytes(StandardCharsets.UTF_8));
+		File file = folder.newFile("network.xml");
+		Files.write(file.toPath(), Arrays.asList(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<!DOCTYPE network SYSTEM \"http://www.matsim.org/files/dtd/network_v2.dtd\" [",
+				"<!ENTITY xxe SYSTEM \"" + secret.toURI() + "\">",
+				"]>",
+				"<network>",
+				"<nodes>",
+				"<node id=\"1\" x=\"0.0\" y=\"0.0\"/>",
+				"<node id=\"2\" x=\"100.0\" y=\"0.0\"/>",
+				"</nodes>",
+				"<links>",
+				"<link id=\"1\" from=\"1\" to=\"2\" length=\"100.0\" freespeed=\"10.0\" capacity=\"1000.0\" permlanes=\"1.0\">",
+				"<attributes><attribute name=\"type\" class=\"java.lang.String\">&xxe;</attribute></attributes>",
+				"</link>",
+				"</links>",
+				"</network>"), StandardCharsets.UTF_8);
+		MATSimLayer layer = new Importer(file, null).createMatsimLayer();
+		for (Way way : layer.data.getWays()) {
+			String type = way.get(LinkConversionRules.TYPE);
+			Assert.assertFalse(type != null && type.contains("secret"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void streamingNetworkExportRejectsDuplicateIds() throws IOException {
+		MATSimLayer layer = NewNetworkAction.createMatsimLayer();
+		org.openstreetmap.josm.data.osm.Node node1 = new org.openstreetmap.josm.data.osm.Node(new LatLon(0.0, 0.0));
+		org.openstreetmap.josm.data.osm.Node node2 = new org.openstreetmap.josm.data.osm.Node(new LatLon(0.1, 0.1));
+		new AddCommand(layer.data, node1).executeCommand();
+		new AddCommand(layer.data, node2).executeCommand();
+		// a copied way keeps the id of the original
+		for (int i = 0; i < 2; i++) {
+			Way way = new Way();
+			way.addNode(node1);
+			way.addNode(node2);
+			way.put(LinkConversionRules.ID, "1");
+			way.put(LinkConversionRules.FREESPEED, "10.0");
+			way.put(LinkConversionRules.CAPACITY, "1000.0");
+			way.put(LinkConversionRules.PERMLANES, "1.0");
+			way.put(LinkConversionRules.MODES, "car");
+			new AddCommand(layer.data, way).executeCommand();
+		}
+		Assert.assertEquals(2, layer.getNetworkModel().getWay2Links().values().stream().mapToInt(List::size).sum());
+		new NetworkModelWriter(layer.getNetworkModel(), "v2").write(new ByteArrayOutputStream());
+	}
+
+	@Test
+	public void importedModelMatchesConversion() {
+		URL url = getClass().getResource("/test-input/pt-tutorial/multimodalnetwork.xml");
+		MATSimLayer layer = new Importer(new File(url.getFile()), null).createMatsimLayer();
+		Network imported = Export.toScenario(layer.getNetworkModel()).getNetwork();
+		layer.getNetworkModel().visitAll();
+		Network converted = Export.toScenario(layer.getNetworkModel()).getNetwork();
+		Assert.assertEquals(converted.getNodes().keySet(), imported.getNodes().keySet());
+		Assert.assertEquals(converted.getLinks().keySet(), imported.getLinks().keySet());
+		for (Link link : converted.getLinks().values()) {
+			Link importedLink = imported.getLinks().get(link.getId());
+			Assert.assertEquals(link.getFromNode().getId(), importedLink.getFromNode().getId());
+			Assert.assertEquals(link.getLength(), importedLink.getLength(), 0.0);
+			Assert.assertEquals(link.getFreespeed(), importedLink.getFreespeed(), 0.0);
+			Assert.assertEquals(link.getAllowedModes(), importedLink.getAllowedModes());
+		}
+	}
+
+	private void compareNetworks(Network expected, Network actual) {
+		Assert.assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		Assert.assertEquals(expected.getLinks().size(), actual.getLinks().size());
+		Assert.assertEquals(expected.getCapacityPeriod(), actual.getCapacityPeriod(), 0.0);
+		for (Node node : expected.getNodes().values()) {
+			Node actualNode = actual.getNodes().get(node.getId());
+			Assert.assertNotNull(actualNode);
+			Assert.assertEquals(node.getCoord(), actualNode.getCoord());
+		}
+		for (Link link : expected.getLinks().values()) {
+			Link actualLink = actual.getLinks().get(link.getId());
+			Assert.assertNotNull(actualLink);
+			Assert.assertEquals(link.getFromNode().getId(), actualLink.getFromNode().getId());
+			Assert.assertEquals(link.getToNode().getId(), actualLink.getToNode().getId());
+			Assert.assertEquals(link.getLength(), actualLink.getLength(), 0.0);
+			Assert.assertEquals(link.getFreespeed(), actualLink.getFreespeed(), 0.0);
+			Assert.assertEquals(link.getCapacity(), actualLink.getCapacity(), 0.0);
+			Assert.assertEquals(link.getNumberOfLanes(), actualLink.getNumberOfLanes(), 0.0);
+			Assert.assertEquals(link.getAllowedModes(), actualLink.getAllowedModes());
+		}
+	}
+
 	private void deleteAndUndeleteLinksOneByOne(Scenario scenario, MATSimLayer layer) {
 		int nLinks = scenario.getNetwork().getLinks().size();
 		List<Command> commands = new ArrayList<>();
@@ -142,6 +289,51 @@ public class IOTest {
 		checkAttributes(scenario, outputScenario);
 	}
 
+	@Test
+	public void exportKeepsRouteStopFacilities() {
+		Preferences.setSupportTransit(true);
+		Scenario scenario = PtTutorialScenario.scenario();
+		MATSimLayer layer = PtTutorialScenario.layer();
+		Scenario outputScenario = Export.toScenario(layer.getNetworkModel());
+		for (TransitLine line : scenario.getTransitSchedule().getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				TransitRoute outputRoute = outputScenario.getTransitSchedule().getTransitLines().get(line.getId()).getRoutes().get(route.getId());
+				Assert.assertEquals(stopFacilityIds(route), stopFacilityIds(outputRoute));
+			}
+		}
+	}
+
+	@Test
+	public void parallelTransitExportMatchesSerial() {
+		Preferences.setSupportTransit(true);
+		MATSimLayer layer = PtTutorialScenario.layer();
+		Scenario serial = Export.toScenario(layer.getNetworkModel());
+		Scenario parallel;
+		Preferences.setParallelProcessing(true);
+		try {
+			parallel = Export.toScenario(layer.getNetworkModel());
+		} finally {
+			Preferences.setParallelProcessing(false);
+		}
+		Assert.assertEquals(new ArrayList<>(serial.getTransitSchedule().getFacilities().keySet()), new ArrayList<>(parallel.getTransitSchedule().getFacilities().keySet()));
+		Assert.assertEquals(serial.getTransitSchedule().getTransitLines().keySet(), parallel.getTransitSchedule().getTransitLines().keySet());
+		for (TransitLine line : serial.getTransitSchedule().getTransitLines().values()) {
+			for (TransitRoute route : line.getRoutes().values()) {
+				TransitRoute parallelRoute = parallel.getTransitSchedule().getTransitLines().get(line.getId()).getRoutes().get(route.getId());
+				Assert.assertEquals(stopFacilityIds(route), stopFacilityIds(parallelRoute));
+				Assert.assertEquals(route.getRoute().getLinkIds(), parallelRoute.getRoute().getLinkIds());
+			}
+		}
+	}
+
+	private List<String> stopFacilityIds(TransitRoute route) {
+		List<String> result = new ArrayList<>();
+		for (TransitRouteStop stop : route.getStops()) {
+			result.add(stop.getStopFacility().getId().toString());
+		}
+		return result;
+	}
+
 	@Test
 	public void deleteAndUndeleteStopRelations() {
 		Preferences.setSupportTransit(true);
@@ -7,17 +7,24 @@ import org.matsim.contrib.josm.actions.NewNetworkAction;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.LinkConversionRules;
 import org.matsim.contrib.josm.model.MATSimLayer;
+import org.matsim.contrib.josm.model.NetworkModel;
+import org.matsim.contrib.josm.model.NetworkModelRegistry;
+import org.matsim.contrib.josm.model.ScenarioDataChangedEvent;
 import org.openstreetmap.josm.command.AddCommand;
 import org.openstreetmap.josm.command.ChangePropertyCommand;
 import org.openstreetmap.josm.command.DeleteCommand;
 import org.openstreetmap.josm.command.MoveCommand;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class InteractiveEditingTest {
 
@@ -172,6 +179,80 @@ public class InteractiveEditingTest {
 		Assert.assertEquals(4, matsimLayer.getNetworkModel().stopAreas().size());
 	}
 
+	@Test
+	public void changeEventsTrackLinkAndNodeCounts() {
+		MATSimLayer matsimLayer = NewNetworkAction.createMatsimLayer();
+		MainApplication.getLayerManager().addLayer(matsimLayer);
+		NetworkModel networkModel = matsimLayer.getNetworkModel();
+		int[] counts = new int[2];
+		networkModel.addListener(new NetworkModel.ScenarioDataChangedListener() {
+			@Override
+			public void notifyDataChanged() {
+				Assert.fail("Expected the change event.");
+			}
+
+			@Override
+			public void notifyDataChanged(ScenarioDataChangedEvent event) {
+				counts[0] += event.getAddedLinks().size() - event.getRemovedLinks().size();
+				counts[1] += event.getAddedNodes().size() - event.getRemovedNodes().size();
+			}
+		});
+		Node node1 = new Node();
+		node1.setCoor(new LatLon(0.0, 0.0));
+		new AddCommand(matsimLayer.data, node1).executeCommand();
+		Node node2 = new Node();
+		node2.setCoor(new LatLon(0.1, 0.1));
+		new AddCommand(matsimLayer.data, node2).executeCommand();
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put(LinkConversionRules.FREESPEED, "10.0");
+		way.put(LinkConversionRules.CAPACITY, "1000.0");
+		way.put(LinkConversionRules.PERMLANES, "1.0");
+		way.put(LinkConversionRules.MODES, "car");
+		new AddCommand(matsimLayer.data, way).executeCommand();
+		Assert.assertEquals(1, counts[0]);
+		Assert.assertEquals(2, counts[1]);
+		DeleteCommand delete = new DeleteCommand(way);
+		delete.executeCommand();
+		Assert.assertEquals(0, counts[0]);
+		Assert.assertEquals(0, counts[1]);
+		delete.undoCommand();
+		Assert.assertEquals(networkModel.getWay2Links().values().stream().mapToInt(List::size).sum(), counts[0]);
+		Assert.assertEquals(networkModel.nodes().size(), counts[1]);
+	}
+
+	@Test
+	public void relevanceCacheFollowsTagChanges() {
+		MATSimLayer matsimLayer = NewNetworkAction.createMatsimLayer();
+		MainApplication.getLayerManager().addLayer(matsimLayer);
+		NetworkModel networkModel = matsimLayer.getNetworkModel();
+		Node node1 = new Node();
+		node1.setCoor(new LatLon(0.0, 0.0));
+		new AddCommand(matsimLayer.data, node1).executeCommand();
+		Node node2 = new Node();
+		node2.setCoor(new LatLon(0.1, 0.1));
+		new AddCommand(matsimLayer.data, node2).executeCommand();
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put(LinkConversionRules.FREESPEED, "10.0");
+		way.put(LinkConversionRules.CAPACITY, "1000.0");
+		way.put(LinkConversionRules.PERMLANES, "1.0");
+		way.put(LinkConversionRules.MODES, "car");
+		new AddCommand(matsimLayer.data, way).executeCommand();
+		Assert.assertEquals(2, networkModel.nodes().size());
+		long hits = networkModel.getNodeRelevanceHits();
+		networkModel.visitAll();
+		Assert.assertEquals(2, networkModel.nodes().size());
+		Assert.assertTrue(networkModel.getNodeRelevanceHits() > hits);
+		new ChangePropertyCommand(way, LinkConversionRules.MODES, null).executeCommand();
+		Assert.assertEquals(0, networkModel.getWay2Links().values().stream().mapToInt(List::size).sum());
+		Assert.assertEquals(0, networkModel.nodes().size());
+		networkModel.visitAll();
+		Assert.assertEquals(0, networkModel.nodes().size());
+	}
+
 	private Node findNode2(MATSimLayer matsimLayer) {
 		for (Node node : matsimLayer.data.getNodes()) {
 			if ("2".equals(node.get("matsim:id"))) {
@@ -181,4 +262,106 @@ public class InteractiveEditingTest {
 		throw new RuntimeException("Where is node 2?");
 	}
 
+	@Test
+	public void sharedModelIsDisposedByLastUser() {
+		OsmDataLayer layer = new OsmDataLayer(new DataSet(), "osm", null);
+		NetworkModel first = NetworkModelRegistry.acquireNow(layer);
+		NetworkModel second = NetworkModelRegistry.acquireNow(layer);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(2, NetworkModelRegistry.getUsers(layer.data));
+		NetworkModelRegistry.release(layer);
+		Assert.assertTrue(NetworkModel.liveModels().contains(first));
+		NetworkModelRegistry.release(layer);
+		Assert.assertEquals(0, NetworkModelRegistry.getUsers(layer.data));
+		Assert.assertFalse(NetworkModel.liveModels().contains(first));
+
+		// a disposed model no longer follows the data set
+		Node node1 = new Node(new LatLon(0.0, 0.0));
+		Node node2 = new Node(new LatLon(0.1, 0.1));
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put(LinkConversionRules.FREESPEED, "10.0");
+		way.put(LinkConversionRules.CAPACITY, "1000.0");
+		way.put(LinkConversionRules.PERMLANES, "1.0");
+		way.put(LinkConversionRules.MODES, "car");
+		layer.data.addPrimitive(node1);
+		layer.data.addPrimitive(node2);
+		layer.data.addPrimitive(way);
+		Assert.assertTrue(first.getWay2Links().isEmpty());
+	}
+
+	@Test
+	public void editWhileSharedModelIsBuiltIsConverted() {
+		OsmDataLayer layer = new OsmDataLayer(new DataSet(), "osm", null);
+		Node node1 = new Node(new LatLon(0.0, 0.0));
+		Node node2 = new Node(new LatLon(0.1, 0.1));
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put(LinkConversionRules.FREESPEED, "10.0");
+		way.put(LinkConversionRules.CAPACITY, "1000.0");
+		way.put(LinkConversionRules.PERMLANES, "1.0");
+		way.put(LinkConversionRules.MODES, "car");
+		// the build waits for the lock, the events are fired after it
+		CompletableFuture<NetworkModel> future;
+		layer.data.beginUpdate();
+		try {
+			future = NetworkModelRegistry.acquire(layer);
+			layer.data.addPrimitive(node1);
+			layer.data.addPrimitive(node2);
+			layer.data.addPrimitive(way);
+		} finally {
+			layer.data.endUpdate();
+		}
+		NetworkModel networkModel = future.join();
+		try {
+			Assert.assertEquals(1, networkModel.getWay2Links().get(way).size());
+		} finally {
+			NetworkModelRegistry.release(layer);
+		}
+	}
+
+	@Test
+	public void eventDispatchThreadDoesNotWaitForSharedModel() {
+		OsmDataLayer layer = new OsmDataLayer(new DataSet(), "osm", null);
+		NetworkModel[] acquired = new NetworkModel[1];
+		// the build waits for the lock, so the model is not done meanwhile
+		layer.data.beginUpdate();
+		try {
+			GuiHelper.runInEDTAndWait(() -> acquired[0] = NetworkModelRegistry.acquireIfBuilt(layer));
+		} finally {
+			layer.data.endUpdate();
+		}
+		Assert.assertNull(acquired[0]);
+		Assert.assertEquals(0, NetworkModelRegistry.getUsers(layer.data));
+	}
+
+	@Test
+	public void residentialWayIsLeftOutInLevelOfDetail() {
+		DataSet data = new DataSet();
+		Node node1 = new Node(new LatLon(0.0, 0.0));
+		Node node2 = new Node(new LatLon(0.1, 0.1));
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put("highway", "residential");
+		data.addPrimitive(node1);
+		data.addPrimitive(node2);
+		data.addPrimitive(way);
+		NetworkModel networkModel = NetworkModel.createNetworkModel(data);
+		networkModel.visitAll();
+		Assert.assertFalse(networkModel.getWay2Links().get(way).isEmpty());
+
+		RenderState.register(networkModel);
+		RenderState.WayRender render = RenderState.get(data).get(way);
+		Assert.assertEquals(6, render.hierarchy);
+		Assert.assertTrue(render.hierarchy > Preferences.getLodHierarchy());
+
+		int listeners = networkModel.getListenerCount();
+		RenderState.unregister(networkModel);
+		Assert.assertNull(RenderState.get(data));
+		Assert.assertEquals(listeners - 1, networkModel.getListenerCount());
+	}
+
 }
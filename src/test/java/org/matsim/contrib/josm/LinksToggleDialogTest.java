@@ -0,0 +1,42 @@
+package org.matsim.contrib.josm;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.contrib.josm.actions.NewNetworkAction;
+import org.matsim.contrib.josm.gui.LinksToggleDialog;
+import org.matsim.contrib.josm.model.MATSimLayer;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.testutils.JOSMTestRules;
+
+public class LinksToggleDialogTest {
+
+	@Rule
+	public JOSMTestRules test = new JOSMTestRules().main().projection().preferences();
+
+	// the dialog only follows the edit layer while it is showing
+	private static class ShownLinksToggleDialog extends LinksToggleDialog {
+		boolean shown;
+
+		@Override
+		public boolean isShowing() {
+			return shown;
+		}
+	}
+
+	@Test
+	public void hidingKeepsRenderStateOfMatsimLayer() {
+		MATSimLayer matsimLayer = NewNetworkAction.createMatsimLayer();
+		MainApplication.getLayerManager().addLayer(matsimLayer);
+		MainApplication.getLayerManager().setActiveLayer(matsimLayer);
+		ShownLinksToggleDialog dialog = new ShownLinksToggleDialog();
+		dialog.shown = true;
+		dialog.showNotify();
+		Assert.assertNotNull(RenderState.get(matsimLayer.data));
+
+		dialog.shown = false;
+		dialog.hideNotify();
+		Assert.assertNotNull(RenderState.get(matsimLayer.data));
+	}
+
+}
@@ -6,6 +6,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.josm.gui.Preferences;
 import org.matsim.contrib.josm.model.*;
 import org.matsim.core.config.Config;
@@ -17,8 +19,10 @@ import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.openstreetmap.josm.command.ChangeNodesCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
@@ -204,6 +208,55 @@ public class OSMDataTest {
 
 	}
 
+	@Test
+	public void routeIndexMatchesMembers() {
+		RouteMembershipIndex index = new RouteMembershipIndex(busRouteListener);
+		busRouteListener.addListener(index);
+		for (Route route : busRouteListener.routes().values()) {
+			Assert.assertTrue(index.routesOf(Collections.singleton(route.getRelation())).contains(route));
+			for (OsmPrimitive member : route.getRelation().getMemberPrimitives()) {
+				Assert.assertTrue(index.routesOf(Collections.singleton(member)).contains(route));
+			}
+		}
+		Assert.assertEquals(1, index.countLines(index.routesOf(busRouteLayer.data.getRelations())));
+
+		// the routes are replaced when the conversion preferences change
+		org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_keepPaths", true);
+		try {
+			Assert.assertEquals(2, index.routesOf(busRouteLayer.data.getRelations()).size());
+			for (Route route : index.routesOf(busRouteLayer.data.allPrimitives())) {
+				Assert.assertSame(route, busRouteListener.routes().get(route.getRelation()));
+			}
+		} finally {
+			org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_keepPaths", false);
+		}
+	}
+
+	@Test
+	public void routesAreComputedOncePerChange() {
+		Route route = busRouteListener.routes().values().iterator().next();
+		route.getRoute();
+		route.getStops();
+		long routeComputations = Route.getRouteComputations();
+		long stopComputations = Route.getStopComputations();
+		Assert.assertEquals(5, route.getRoute().size());
+		Assert.assertEquals(4, route.getStops().size());
+		Assert.assertEquals(routeComputations, Route.getRouteComputations());
+		Assert.assertEquals(stopComputations, Route.getStopComputations());
+
+		// revisits the routes, which must pick up their longer paths
+		org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_keepPaths", true);
+		try {
+			route = busRouteListener.routes().get(route.getRelation());
+			Assert.assertEquals(9, route.getRoute().size());
+			Assert.assertEquals(4, route.getStops().size());
+			Assert.assertEquals(routeComputations + 1, Route.getRouteComputations());
+			Assert.assertEquals(stopComputations + 1, Route.getStopComputations());
+		} finally {
+			org.openstreetmap.josm.spi.preferences.Config.getPref().putBoolean("matsim_keepPaths", false);
+		}
+	}
+
 	@Test
 	public void testIntersections() {
 		 Assert.assertEquals(11,intersectionsListener.getWay2Links().values().stream().mapToInt(List::size).sum());
@@ -237,6 +290,94 @@ public class OSMDataTest {
 		 Assert.assertEquals(12,intersectionsListener.nodes().size());
 	}
 
+	@Test
+	public void parallelConversionMatchesSerial() throws IOException, IllegalDataException {
+		Preferences.setSupportTransit(false);
+		InputStream input = getClass().getResourceAsStream("/test-input/OSMData/unter_den_linden.osm");
+		DataSet data = OsmReader.parseDataSet(input, null);
+
+		NetworkModel serial = NetworkModel.createNetworkModel(data);
+		serial.visitAll();
+		Network serialNetwork = Export.toScenario(serial).getNetwork();
+
+		Network parallelNetwork;
+		Preferences.setParallelProcessing(true);
+		try {
+			NetworkModel parallel = NetworkModel.createNetworkModel(data);
+			parallel.visitAll();
+			parallelNetwork = Export.toScenario(parallel).getNetwork();
+		} finally {
+			Preferences.setParallelProcessing(false);
+		}
+
+		Assert.assertFalse(serialNetwork.getLinks().isEmpty());
+		Assert.assertEquals(serialNetwork.getNodes().size(), parallelNetwork.getNodes().size());
+		for (org.matsim.api.core.v01.network.Node node : serialNetwork.getNodes().values()) {
+			Assert.assertEquals(node.getCoord(), parallelNetwork.getNodes().get(node.getId()).getCoord());
+		}
+		Assert.assertEquals(serialNetwork.getLinks().size(), parallelNetwork.getLinks().size());
+		for (Link link : serialNetwork.getLinks().values()) {
+			Link parallelLink = parallelNetwork.getLinks().get(link.getId());
+			Assert.assertEquals(link.getFromNode().getId(), parallelLink.getFromNode().getId());
+			Assert.assertEquals(link.getToNode().getId(), parallelLink.getToNode().getId());
+			Assert.assertEquals(link.getLength(), parallelLink.getLength(), 0.0);
+			Assert.assertEquals(link.getFreespeed(), parallelLink.getFreespeed(), 0.0);
+			Assert.assertEquals(link.getCapacity(), parallelLink.getCapacity(), 0.0);
+			Assert.assertEquals(link.getNumberOfLanes(), parallelLink.getNumberOfLanes(), 0.0);
+			Assert.assertEquals(link.getAllowedModes(), parallelLink.getAllowedModes());
+		}
+	}
+
+	@Test
+	public void directConversionMatchesExport() throws IOException, IllegalDataException {
+		Preferences.setSupportTransit(false);
+		InputStream input = getClass().getResourceAsStream("/test-input/OSMData/unter_den_linden.osm");
+		DataSet data = OsmReader.parseDataSet(input, null);
+
+		NetworkModel networkModel = NetworkModel.createNetworkModel(data);
+		networkModel.visitAll();
+		Network expected = Export.toScenario(new Importer(Export.toScenario(networkModel)).createMatsimLayer().getNetworkModel()).getNetwork();
+		Network actual = Export.toScenario(new Importer(networkModel).createMatsimLayer().getNetworkModel()).getNetwork();
+
+		Assert.assertFalse(expected.getLinks().isEmpty());
+		Assert.assertEquals(expected.getNodes().keySet(), actual.getNodes().keySet());
+		Assert.assertEquals(expected.getLinks().keySet(), actual.getLinks().keySet());
+		for (Link link : expected.getLinks().values()) {
+			Link actualLink = actual.getLinks().get(link.getId());
+			Assert.assertEquals(link.getFromNode().getId(), actualLink.getFromNode().getId());
+			Assert.assertEquals(link.getToNode().getId(), actualLink.getToNode().getId());
+			Assert.assertEquals(link.getLength(), actualLink.getLength(), 0.0);
+			Assert.assertEquals(link.getCapacity(), actualLink.getCapacity(), 0.0);
+			Assert.assertEquals(link.getAllowedModes(), actualLink.getAllowedModes());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void directConversionRejectsDuplicateNodeIds() {
+		Preferences.setSupportTransit(false);
+		DataSet data = new DataSet();
+		// a copied node keeps the id of the original
+		Node node1 = new Node(new LatLon(0.0, 0.0));
+		node1.put(NodeConversionRules.ID, "1");
+		Node node2 = new Node(new LatLon(0.1, 0.1));
+		node2.put(NodeConversionRules.ID, "1");
+		Way way = new Way();
+		way.addNode(node1);
+		way.addNode(node2);
+		way.put(LinkConversionRules.FREESPEED, "10.0");
+		way.put(LinkConversionRules.CAPACITY, "1000.0");
+		way.put(LinkConversionRules.PERMLANES, "1.0");
+		way.put(LinkConversionRules.MODES, "car");
+		data.addPrimitive(node1);
+		data.addPrimitive(node2);
+		data.addPrimitive(way);
+
+		NetworkModel networkModel = NetworkModel.createNetworkModel(data);
+		networkModel.visitAll();
+		Assert.assertEquals(2, networkModel.nodes().size());
+		new Importer(networkModel).createMatsimLayer();
+	}
+
     private long countRoutes(NetworkModel transitSchedule) {
         int result = 0;
         for (Line transitLine : transitSchedule.lines().values()) {